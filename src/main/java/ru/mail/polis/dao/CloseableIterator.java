@@ -0,0 +1,14 @@
+package ru.mail.polis.dao;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * Iterator holding storage resources (native iterators, snapshots) until closed.
+ * Closing is idempotent and an exhausted iterator must still be closed.
+ */
+public interface CloseableIterator<E> extends Iterator<E>, Closeable {
+
+    @Override
+    void close();
+}
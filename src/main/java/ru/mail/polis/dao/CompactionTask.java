@@ -0,0 +1,55 @@
+package ru.mail.polis.dao;
+
+/**
+ * Compaction running in background, see {@link DAO#compactInBackground()}.
+ */
+public interface CompactionTask {
+    /**
+     * Task already done by the time it is returned.
+     */
+    CompactionTask DONE = new CompactionTask() {
+        @Override
+        public State state() {
+            return State.DONE;
+        }
+
+        @Override
+        public double progress() {
+            return 1.0;
+        }
+
+        @Override
+        public void cancel() {
+            // Nothing to cancel
+        }
+
+        @Override
+        public void await() {
+            // Already done
+        }
+    };
+
+    enum State {
+        RUNNING,
+        DONE,
+        CANCELLED,
+        FAILED
+    }
+
+    State state();
+
+    /**
+     * Share of the work done so far, from 0 to 1.
+     */
+    double progress();
+
+    /**
+     * Requests to stop as soon as possible, the part of the work in progress is completed first.
+     */
+    void cancel();
+
+    /**
+     * Waits for the task to finish in any state.
+     */
+    void await() throws InterruptedException;
+}
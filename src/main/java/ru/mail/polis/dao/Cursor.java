@@ -0,0 +1,40 @@
+package ru.mail.polis.dao;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+
+import org.jetbrains.annotations.NotNull;
+
+import ru.mail.polis.Record;
+
+/**
+ * Forward only scan over records exposing the current one through views reused between steps.
+ * The views are valid until the next {@link #advance()} or {@link #close()} and must not be modified,
+ * their positions included.
+ */
+public interface Cursor extends Closeable {
+
+    /**
+     * Moves to the next record, the first call moves to the first one.
+     *
+     * @return whether there is a current record
+     */
+    boolean advance();
+
+    @NotNull
+    ByteBuffer key();
+
+    @NotNull
+    ByteBuffer value();
+
+    @Override
+    void close();
+
+    /**
+     * Adapts the iterator, the cursor takes over closing it.
+     */
+    @NotNull
+    static Cursor of(@NotNull final CloseableIterator<Record> records) {
+        return new IteratorCursor(records);
+    }
+}
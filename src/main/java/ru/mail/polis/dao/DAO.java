@@ -23,7 +23,11 @@ import ru.mail.polis.Record;
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 /**
@@ -39,18 +43,20 @@ public interface DAO extends Closeable {
      * in <b>ascending</b> order according to {@link Record#compareTo(Record)}.
      * N.B. The iterator should be obtained as fast as possible, e.g.
      * one should not "seek" to start point ("from" element) in linear time ;)
+     * The iterator must be closed to release resources pinned by it.
      */
     @NotNull
-    Iterator<Record> iterator(@NotNull ByteBuffer from) throws IOException;
+    CloseableIterator<Record> iterator(@NotNull ByteBuffer from) throws IOException;
 
     /**
      * Provides iterator (possibly empty) over {@link Record}s starting at "from" key (inclusive)
      * until given "to" key (exclusive) in <b>ascending</b> order according to {@link Record#compareTo(Record)}.
      * N.B. The iterator should be obtained as fast as possible, e.g.
      * one should not "seek" to start point ("from" element) in linear time ;)
+     * The iterator must be closed to release resources pinned by it.
      */
     @NotNull
-    default Iterator<Record> range(
+    default CloseableIterator<Record> range(
             @NotNull ByteBuffer from,
             @Nullable ByteBuffer to) throws IOException {
         if (to == null) {
@@ -65,6 +71,98 @@ public interface DAO extends Closeable {
         return Iters.until(iterator(from), bound);
     }
 
+    /**
+     * Provides {@link Cursor} over the same records as {@link #range(ByteBuffer, ByteBuffer)}.
+     * The cursor must be closed to release resources pinned by it.
+     */
+    @NotNull
+    default Cursor cursor(
+            @NotNull ByteBuffer from,
+            @Nullable ByteBuffer to) throws IOException {
+        return Cursor.of(range(from, to));
+    }
+
+    /**
+     * Provides {@link #cursor(ByteBuffer, ByteBuffer)} expected to be read for about the given number of records,
+     * so that the storage may tune the scan for it. The cursor is not limited to them.
+     */
+    @NotNull
+    default Cursor cursor(
+            @NotNull ByteBuffer from,
+            @Nullable ByteBuffer to,
+            long limit) throws IOException {
+        return cursor(from, to);
+    }
+
+    /**
+     * Provides iterator over the same records as {@link #range(ByteBuffer, ByteBuffer)} in <b>descending</b> order.
+     * The default implementation reads the whole range first.
+     * The iterator must be closed to release resources pinned by it.
+     */
+    @NotNull
+    default CloseableIterator<Record> descendingRange(
+            @NotNull ByteBuffer from,
+            @Nullable ByteBuffer to) throws IOException {
+        final List<Record> records = new ArrayList<>();
+        try (CloseableIterator<Record> iter = range(from, to)) {
+            iter.forEachRemaining(records::add);
+        }
+        Collections.reverse(records);
+        return Iters.closeable(records.iterator());
+    }
+
+    /**
+     * Provides {@link Cursor} over the same records as {@link #descendingRange(ByteBuffer, ByteBuffer)}.
+     * The cursor must be closed to release resources pinned by it.
+     */
+    @NotNull
+    default Cursor descendingCursor(
+            @NotNull ByteBuffer from,
+            @Nullable ByteBuffer to) throws IOException {
+        return Cursor.of(descendingRange(from, to));
+    }
+
+    /**
+     * Provides {@link #descendingCursor(ByteBuffer, ByteBuffer)} expected to be read for about the given number
+     * of records, see {@link #cursor(ByteBuffer, ByteBuffer, long)}.
+     */
+    @NotNull
+    default Cursor descendingCursor(
+            @NotNull ByteBuffer from,
+            @Nullable ByteBuffer to,
+            long limit) throws IOException {
+        return descendingCursor(from, to);
+    }
+
+    /**
+     * Counts the records within the range and sums up their key and value sizes.
+     */
+    @NotNull
+    default RangeSize size(
+            @NotNull ByteBuffer from,
+            @Nullable ByteBuffer to) throws IOException {
+        long count = 0;
+        long bytes = 0;
+        try (Cursor cursor = cursor(from, to)) {
+            while (cursor.advance()) {
+                count++;
+                bytes += cursor.key().remaining() + cursor.value().remaining();
+            }
+        }
+        return new RangeSize(count, bytes);
+    }
+
+    /**
+     * Estimates {@link #size(ByteBuffer, ByteBuffer)} without reading the records if the storage is able to,
+     * the default implementation is exact.
+     */
+    @NotNull
+    default RangeSize approximateSize(
+            @NotNull ByteBuffer from,
+            @Nullable ByteBuffer to) throws IOException {
+        return size(from, to);
+    }
+
     /**
      * Obtains {@link Record} corresponding to given key.
      *
@@ -72,17 +170,49 @@ public interface DAO extends Closeable {
      */
     @NotNull
     default ByteBuffer get(@NotNull ByteBuffer key) throws IOException, NoSuchElementException {
-        final Iterator<Record> iter = iterator(key);
-        if (!iter.hasNext()) {
-            throw new NoSuchElementException("Not found");
+        try (CloseableIterator<Record> iter = iterator(key)) {
+            if (!iter.hasNext()) {
+                throw new NoSuchElementException("Not found");
+            }
+
+            final Record next = iter.next();
+            if (next.getKey().equals(key)) {
+                return next.getValue();
+            } else {
+                throw new NoSuchElementException("Not found");
+            }
         }
+    }
+
+    /**
+     * Copies value corresponding to given key into the array.
+     *
+     * @return full value length, if it exceeds the array length only the head of the value has been copied
+     * @throws NoSuchElementException if no such record
+     */
+    default int get(
+            @NotNull ByteBuffer key,
+            @NotNull byte[] value) throws IOException, NoSuchElementException {
+        final ByteBuffer found = get(key);
+        final int length = found.remaining();
+        found.duplicate().get(value, 0, Math.min(length, value.length));
+        return length;
+    }
 
-        final Record next = iter.next();
-        if (next.getKey().equals(key)) {
-            return next.getValue();
-        } else {
-            throw new NoSuchElementException("Not found");
+    /**
+     * Obtains {@link Record}s corresponding to given keys in the same order, skipping absent ones.
+     */
+    @NotNull
+    default CloseableIterator<Record> getAll(@NotNull Collection<ByteBuffer> keys) throws IOException {
+        final List<Record> found = new ArrayList<>(keys.size());
+        for (final ByteBuffer key : keys) {
+            try {
+                found.add(Record.of(key, get(key)));
+            } catch (NoSuchElementException ignored) {
+                // Skip absent key
+            }
         }
+        return Iters.closeable(found.iterator());
     }
 
     /**
@@ -97,10 +227,82 @@ public interface DAO extends Closeable {
      */
     void remove(@NotNull ByteBuffer key) throws IOException;
 
+    /**
+     * Tells whether writes are stopped or slowed down at the moment, so they had better be deferred.
+     * Writes may still throw {@link WriteStalledException} instead of blocking when this returns {@code false}.
+     */
+    default boolean isWriteStalled() {
+        return false;
+    }
+
+    /**
+     * Applies the mutations in order.
+     *
+     * <p>Implementations persist the whole batch or nothing of it unless stated otherwise.
+     * Concurrent readers may observe a prefix of the batch unless an implementation states
+     * the batch becomes visible at once. This default one just upserts and removes the keys one by one,
+     * so a failure may leave a prefix of the batch applied.
+     */
+    default void apply(@NotNull List<Mutation> batch) throws IOException {
+        for (final Mutation mutation : batch) {
+            final ByteBuffer value = mutation.getValue();
+            if (value == null) {
+                remove(mutation.getKey());
+            } else {
+                upsert(mutation.getKey(), value);
+            }
+        }
+    }
+
+    /**
+     * Removes all the records starting at "from" key (inclusive) until given "to" key (exclusive).
+     * This default implementation removes the keys found in batches, so the removal as a whole is not atomic.
+     */
+    default void removeRange(
+            @NotNull ByteBuffer from,
+            @Nullable ByteBuffer to) throws IOException {
+        final int batchSize = 1024;
+        final List<Mutation> batch = new ArrayList<>(batchSize);
+        try (Cursor cursor = cursor(from, to)) {
+            while (cursor.advance()) {
+                final ByteBuffer key = cursor.key();
+                final ByteBuffer copy = ByteBuffer.allocate(key.remaining());
+                copy.put(key.duplicate()).flip();
+                batch.add(Mutation.remove(copy));
+                if (batch.size() == batchSize) {
+                    apply(batch);
+                    batch.clear();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            apply(batch);
+        }
+    }
+
     /**
      * Performs compaction.
      */
     default void compact() throws IOException {
         // Implement me when you get to stage 3
     }
+
+    /**
+     * Starts compaction in background or returns the one still running.
+     * This default implementation just performs {@link #compact()}.
+     */
+    @NotNull
+    default CompactionTask compactInBackground() throws IOException {
+        compact();
+        return CompactionTask.DONE;
+    }
+
+    /**
+     * Provides implementation specific metrics by name.
+     * The service reads them on a selector thread, so they must not block on I/O.
+     */
+    @NotNull
+    default Map<String, Number> stats() {
+        return Collections.emptyMap();
+    }
 }
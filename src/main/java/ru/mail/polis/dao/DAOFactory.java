@@ -21,7 +21,10 @@ import java.io.IOException;
 
 import org.jetbrains.annotations.NotNull;
 import org.rocksdb.RocksDBException;
+import ru.mail.polis.dao.impl.MappedDAO;
 import ru.mail.polis.dao.impl.RocksDAO;
+import ru.mail.polis.dao.impl.lsm.LsmDAO;
+import ru.mail.polis.dao.impl.lsm.MemoryDAO;
 
 /**
  * Custom {@link DAO} factory.
@@ -31,6 +34,12 @@ import ru.mail.polis.dao.impl.RocksDAO;
 public final class DAOFactory {
     static final long MAX_HEAP = 256 * 1024 * 1024;
 
+    /**
+     * Storage engine to use: {@code rocks} (default), {@code lsm}, non-persistent {@code memory}
+     * or read-only {@code mapped} serving {@link MappedDAO#DATASET} file.
+     */
+    static final String ENGINE = System.getProperty("dao.engine", "rocks");
+
     private DAOFactory() {
         // Not instantiatable
     }
@@ -55,10 +64,21 @@ public final class DAOFactory {
             throw new IllegalArgumentException("Path is not a directory: " + data);
         }
 
-        try {
-            return new RocksDAO(data);
-        } catch (RocksDBException e) {
-            throw new RuntimeException();
+        switch (ENGINE) {
+            case "rocks":
+                try {
+                    return new RocksDAO(data);
+                } catch (RocksDBException e) {
+                    throw new IOException("Can't open RocksDB", e);
+                }
+            case "lsm":
+                return new LsmDAO(data);
+            case "memory":
+                return new MemoryDAO();
+            case "mapped":
+                return new MappedDAO(new File(data, MappedDAO.DATASET));
+            default:
+                throw new IllegalArgumentException("Unknown storage engine: " + ENGINE);
         }
     }
 }
@@ -0,0 +1,58 @@
+package ru.mail.polis.dao;
+
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+import org.jetbrains.annotations.NotNull;
+
+import ru.mail.polis.Record;
+
+/**
+ * {@link Cursor} over the records of an iterator.
+ */
+final class IteratorCursor implements Cursor {
+    private final CloseableIterator<Record> records;
+
+    private ByteBuffer key;
+    private ByteBuffer value;
+
+    IteratorCursor(@NotNull final CloseableIterator<Record> records) {
+        this.records = records;
+    }
+
+    @Override
+    public boolean advance() {
+        if (!records.hasNext()) {
+            key = null;
+            value = null;
+            return false;
+        }
+        final Record record = records.next();
+        key = record.getKey();
+        value = record.getValue();
+        return true;
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer key() {
+        if (key == null) {
+            throw new NoSuchElementException("No current record");
+        }
+        return key;
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer value() {
+        if (value == null) {
+            throw new NoSuchElementException("No current record");
+        }
+        return value;
+    }
+
+    @Override
+    public void close() {
+        records.close();
+    }
+}
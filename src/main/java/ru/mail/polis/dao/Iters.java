@@ -31,7 +31,7 @@ import com.google.common.base.Functions;
  */
 public final class Iters {
 
-    private static final Iterator<Object> EMPTY = new Iterator<>() {
+    private static final CloseableIterator<Object> EMPTY = new CloseableIterator<>() {
         @Override
         public boolean hasNext() {
             return false;
@@ -41,6 +41,11 @@ public final class Iters {
         public Object next() {
             throw new NoSuchElementException("Next on empty iterator");
         }
+
+        @Override
+        public void close() {
+            // Nothing to release
+        }
     };
 
     private Iters() {
@@ -48,8 +53,25 @@ public final class Iters {
     }
 
     @SuppressWarnings("unchecked")
-    public static <E> Iterator<E> empty() {
-        return (Iterator<E>) EMPTY;
+    public static <E> CloseableIterator<E> empty() {
+        return (CloseableIterator<E>) EMPTY;
+    }
+
+    /**
+     * Wraps iterator not holding any resources.
+     */
+    public static <E> CloseableIterator<E> closeable(@NotNull final Iterator<E> iter) {
+        return closeable(iter, () -> {
+        });
+    }
+
+    /**
+     * Wraps iterator running the action once on the first {@link CloseableIterator#close()}.
+     */
+    public static <E> CloseableIterator<E> closeable(
+            @NotNull final Iterator<E> iter,
+            @NotNull final Runnable onClose) {
+        return new ClosingIterator<>(iter, onClose);
     }
 
     public static <E extends Comparable<E>> Iterator<E> until(
@@ -58,6 +80,12 @@ public final class Iters {
         return new UntilIterator<>(iter, until);
     }
 
+    public static <E extends Comparable<E>> CloseableIterator<E> until(
+            @NotNull final CloseableIterator<E> iter,
+            @NotNull final E until) {
+        return closeable(new UntilIterator<>(iter, until), iter::close);
+    }
+
     public static <E> Iterator<E> collapseEquals(
             @NotNull final Iterator<E> iter,
             @NotNull final Function<E, ?> byKey) {
@@ -68,6 +96,37 @@ public final class Iters {
         return new CollapseEqualsIterator<>(iter);
     }
 
+    private static class ClosingIterator<E> implements CloseableIterator<E> {
+        private final Iterator<E> iter;
+        private Runnable onClose;
+
+        ClosingIterator(
+                @NotNull final Iterator<E> iter,
+                @NotNull final Runnable onClose) {
+            this.iter = iter;
+            this.onClose = onClose;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return iter.hasNext();
+        }
+
+        @Override
+        public E next() {
+            return iter.next();
+        }
+
+        @Override
+        public void close() {
+            if (onClose != null) {
+                final Runnable action = onClose;
+                onClose = null;
+                action.run();
+            }
+        }
+    }
+
     private static class UntilIterator<E extends Comparable<E>> implements Iterator<E> {
         private final Iterator<E> iter;
         private final E until;
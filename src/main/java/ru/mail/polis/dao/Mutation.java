@@ -0,0 +1,52 @@
+package ru.mail.polis.dao;
+
+import java.nio.ByteBuffer;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Single upsert or removal within a batch applied by {@link DAO#apply}.
+ */
+public final class Mutation {
+    @NotNull
+    private final ByteBuffer key;
+    @Nullable
+    private final ByteBuffer value;
+
+    private Mutation(
+            @NotNull final ByteBuffer key,
+            @Nullable final ByteBuffer value) {
+        this.key = key;
+        this.value = value;
+    }
+
+    @NotNull
+    public static Mutation upsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) {
+        return new Mutation(key, value);
+    }
+
+    @NotNull
+    public static Mutation remove(@NotNull final ByteBuffer key) {
+        return new Mutation(key, null);
+    }
+
+    @NotNull
+    public ByteBuffer getKey() {
+        return key.asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the value to upsert or {@code null} for a removal.
+     */
+    @Nullable
+    public ByteBuffer getValue() {
+        return value == null ? null : value.asReadOnlyBuffer();
+    }
+
+    public boolean isRemove() {
+        return value == null;
+    }
+}
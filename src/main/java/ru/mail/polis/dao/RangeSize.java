@@ -0,0 +1,24 @@
+package ru.mail.polis.dao;
+
+/**
+ * Number of records and their total key and value size within a key range.
+ */
+public final class RangeSize {
+    private final long count;
+    private final long bytes;
+
+    public RangeSize(
+            final long count,
+            final long bytes) {
+        this.count = count;
+        this.bytes = bytes;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+}
@@ -0,0 +1,14 @@
+package ru.mail.polis.dao;
+
+import java.io.IOException;
+
+/**
+ * Thrown on writes to a storage serving an immutable dataset.
+ */
+public class ReadOnlyStorageException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public ReadOnlyStorageException(final String message) {
+        super(message);
+    }
+}
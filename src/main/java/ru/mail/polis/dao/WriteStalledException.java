@@ -0,0 +1,20 @@
+package ru.mail.polis.dao;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of blocking when the storage can't take writes for a while, they may be retried later.
+ */
+public class WriteStalledException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public WriteStalledException(final String message) {
+        super(message);
+    }
+
+    public WriteStalledException(
+            final String message,
+            final Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,139 @@
+package ru.mail.polis.dao.impl;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.rocksdb.CompactRangeOptions;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.mail.polis.dao.CompactionTask;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs manual compactions one at a time on a dedicated thread, key range by key range,
+ * so they report progress and can be cancelled in between the ranges.
+ * Automatic compactions keep running alongside.
+ */
+final class CompactionScheduler {
+    private static final Logger log = LoggerFactory.getLogger(CompactionScheduler.class);
+
+    private final RocksDB db;
+    private final ExecutorService executor;
+
+    @Nullable
+    private RangeCompaction current;
+
+    CompactionScheduler(@NotNull final RocksDB db) {
+        this(db, Executors.newSingleThreadExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "compaction");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    /**
+     * Runs the compactions on the given single thread executor, which is shut down on close.
+     */
+    CompactionScheduler(
+            @NotNull final RocksDB db,
+            @NotNull final ExecutorService executor) {
+        this.db = db;
+        this.executor = executor;
+    }
+
+    /**
+     * Starts compacting the ranges split by the keys unless a compaction is running already.
+     *
+     * @return the started or the running compaction
+     */
+    @NotNull
+    synchronized CompactionTask start(@NotNull final List<ByteBuffer> splits) {
+        if (current != null && current.state() == CompactionTask.State.RUNNING) {
+            return current;
+        }
+        current = new RangeCompaction(splits);
+        executor.execute(current);
+        return current;
+    }
+
+    /**
+     * Cancels the running compaction and waits for the range in progress, so the database may be closed.
+     */
+    void close() throws InterruptedException {
+        synchronized (this) {
+            if (current != null) {
+                current.cancel();
+            }
+        }
+        executor.shutdown();
+        while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+            log.info("Waiting for the range being compacted");
+        }
+    }
+
+    private final class RangeCompaction implements CompactionTask, Runnable {
+        private final List<ByteBuffer> splits;
+        private final CountDownLatch finished = new CountDownLatch(1);
+
+        private volatile State state = State.RUNNING;
+        private volatile boolean cancelled;
+        private volatile int done;
+
+        RangeCompaction(@NotNull final List<ByteBuffer> splits) {
+            this.splits = splits;
+        }
+
+        @Override
+        public void run() {
+            try (CompactRangeOptions options = new CompactRangeOptions().setExclusiveManualCompaction(false)) {
+                for (int i = 0; i <= splits.size(); i++) {
+                    if (cancelled) {
+                        state = State.CANCELLED;
+                        return;
+                    }
+                    final byte[] begin = i == 0 ? null : RocksDAO.toArray(splits.get(i - 1));
+                    final byte[] end = i == splits.size() ? null : RocksDAO.toArray(splits.get(i));
+                    db.compactRange(db.getDefaultColumnFamily(), begin, end, options);
+                    done = i + 1;
+                }
+                state = State.DONE;
+            } catch (RocksDBException | RuntimeException e) {
+                log.error("Can't compact", e);
+                state = State.FAILED;
+            } finally {
+                // Never left running, or the scheduler would keep handing out the dead task
+                if (state == State.RUNNING) {
+                    state = State.FAILED;
+                }
+                finished.countDown();
+            }
+        }
+
+        @Override
+        public State state() {
+            return state;
+        }
+
+        @Override
+        public double progress() {
+            return (double) done / (splits.size() + 1);
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+
+        @Override
+        public void await() throws InterruptedException {
+            finished.await();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package ru.mail.polis.dao.impl;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.mail.polis.dao.Mutation;
+import ru.mail.polis.dao.WriteStalledException;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Coalesces concurrent commits into one write.
+ * The writer at the head of the queue becomes the leader: it takes the batches queued up behind it,
+ * writes them at once and wakes their writers up with the outcome, while the next group gathers.
+ */
+final class GroupCommit {
+    private final Writer writer;
+    private final int maxGroupSize;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Deque<Waiter> queue = new ArrayDeque<>();
+    private final AtomicLong groups = new AtomicLong();
+    private final AtomicLong commits = new AtomicLong();
+
+    @FunctionalInterface
+    interface Writer {
+        /**
+         * Writes the mutations atomically.
+         */
+        void write(@NotNull List<Mutation> mutations) throws IOException;
+    }
+
+    /**
+     * @param maxGroupSize number of mutations to stop adding batches to a group at
+     */
+    GroupCommit(
+            @NotNull final Writer writer,
+            final int maxGroupSize) {
+        this.writer = writer;
+        this.maxGroupSize = maxGroupSize;
+    }
+
+    /**
+     * Writes the batch atomically along with the ones committed concurrently and waits for the write.
+     */
+    void commit(@NotNull final List<Mutation> batch) throws IOException {
+        final Waiter self = new Waiter(batch, lock.newCondition());
+        final List<Waiter> group;
+        final List<Mutation> mutations;
+        lock.lock();
+        try {
+            queue.addLast(self);
+            while (!self.done && queue.peekFirst() != self) {
+                self.condition.awaitUninterruptibly();
+            }
+            if (self.done) {
+                if (self.failure != null) {
+                    throw failure(self.failure);
+                }
+                return;
+            }
+
+            // Lead the group, the members stay queued until written so the newcomers wait behind
+            group = new ArrayList<>();
+            mutations = new ArrayList<>(batch.size());
+            for (final Waiter waiter : queue) {
+                if (!group.isEmpty() && mutations.size() + waiter.batch.size() > maxGroupSize) {
+                    break;
+                }
+                group.add(waiter);
+                mutations.addAll(waiter.batch);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        IOException failure = null;
+        try {
+            writer.write(mutations);
+        } catch (IOException e) {
+            failure = e;
+        } catch (RuntimeException e) {
+            // The members must be woken up whatever happens
+            failure = new IOException("Can't write group", e);
+        }
+        groups.incrementAndGet();
+        commits.addAndGet(group.size());
+
+        lock.lock();
+        try {
+            for (final Waiter waiter : group) {
+                queue.pollFirst();
+                waiter.failure = failure;
+                waiter.done = true;
+                waiter.condition.signal();
+            }
+            final Waiter next = queue.peekFirst();
+            if (next != null) {
+                next.condition.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Wraps the failure of the group write for a member, keeping the stalls distinguishable.
+     */
+    @NotNull
+    private static IOException failure(@NotNull final IOException cause) {
+        if (cause instanceof WriteStalledException) {
+            return new WriteStalledException("Group write stalled", cause);
+        }
+        return new IOException("Group write failed", cause);
+    }
+
+    long groups() {
+        return groups.get();
+    }
+
+    long commits() {
+        return commits.get();
+    }
+
+    /**
+     * Number of commits waiting for their group or being written at the moment.
+     */
+    int queued() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static final class Waiter {
+        final List<Mutation> batch;
+        final Condition condition;
+        boolean done;
+        @Nullable
+        IOException failure;
+
+        Waiter(
+                @NotNull final List<Mutation> batch,
+                @NotNull final Condition condition) {
+            this.batch = batch;
+            this.condition = condition;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package ru.mail.polis.dao.impl;
+
+import org.jetbrains.annotations.NotNull;
+import org.rocksdb.LiveFileMetaData;
+import org.rocksdb.RocksDB;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Lists the live SST files at most every second, so that scans estimate and split their ranges
+ * without asking RocksDB on every request. A stale list only skews the estimates.
+ */
+final class LiveFilesCache {
+    private static final long REFRESH_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    private final RocksDB db;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    private volatile List<LiveFileMetaData> files;
+    private volatile long listedAt;
+
+    LiveFilesCache(@NotNull final RocksDB db) {
+        this.db = db;
+        this.files = Collections.unmodifiableList(db.getLiveFilesMetaData());
+        this.listedAt = System.nanoTime();
+    }
+
+    @NotNull
+    List<LiveFileMetaData> get() {
+        final long now = System.nanoTime();
+        // Just one of the callers lists the files, the rest go on with the cached list
+        if (now - listedAt >= REFRESH_INTERVAL && refreshing.compareAndSet(false, true)) {
+            try {
+                files = Collections.unmodifiableList(db.getLiveFilesMetaData());
+            } finally {
+                listedAt = now;
+                refreshing.set(false);
+            }
+        }
+        return files;
+    }
+}
@@ -0,0 +1,286 @@
+package ru.mail.polis.dao.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import ru.mail.polis.Record;
+import ru.mail.polis.dao.CloseableIterator;
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.ReadOnlyStorageException;
+
+/**
+ * Read-only storage serving an immutable sorted dataset straight from a memory-mapped file.
+ *
+ * <p>File layout: records ({@code keyLength, key, valueLength, value}) in ascending key order,
+ * then the sparse index of every {@code interval}-th record offset, the interval and the index size.
+ * Lookups binary search the sparse index and walk at most {@code interval} records.
+ * Descending scans walk the index backwards, reading the record offsets of a block forward first.
+ * Returned buffers are slices of the mapping, so nothing is copied on the heap.
+ */
+public final class MappedDAO implements DAO {
+    public static final String DATASET = "dataset.sorted";
+
+    private static final int INDEX_INTERVAL = Integer.getInteger("dao.mapped.index.interval", 64);
+
+    private final ByteBuffer records;
+    private final ByteBuffer index;
+    private final int indexSize;
+    private final int interval;
+
+    /**
+     * Maps the dataset file, absent file means empty dataset.
+     */
+    public MappedDAO(@NotNull final File file) throws IOException {
+        if (!file.exists()) {
+            this.records = ByteBuffer.allocate(0);
+            this.index = ByteBuffer.allocate(0);
+            this.indexSize = 0;
+            this.interval = 1;
+            return;
+        }
+        final ByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Dataset is too large: " + file);
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        final int limit = mapped.limit();
+        this.indexSize = mapped.getInt(limit - Integer.BYTES);
+        this.interval = mapped.getInt(limit - Integer.BYTES * 2);
+        final int indexStart = limit - Integer.BYTES * (indexSize + 2);
+        if (indexSize < 0 || interval <= 0 || indexStart < 0) {
+            throw new IOException("Corrupted dataset: " + file);
+        }
+        this.index = mapped.duplicate().position(indexStart).limit(limit - Integer.BYTES * 2).slice();
+        this.records = mapped.duplicate().limit(indexStart).slice();
+    }
+
+    /**
+     * Builds a dataset file from records in ascending key order.
+     */
+    public static void write(
+            @NotNull final File file,
+            @NotNull final Iterator<Record> source) throws IOException {
+        final File temp = new File(file.getPath() + ".tmp");
+        try (SortedFileWriter writer = new SortedFileWriter(temp)) {
+            for (int count = 0; source.hasNext(); count++) {
+                writer.startEntry(count % INDEX_INTERVAL == 0);
+                final Record record = source.next();
+                writer.writeBuffer(record.getKey());
+                writer.writeBuffer(record.getValue());
+            }
+            writer.finish(INDEX_INTERVAL);
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Compares the key stored at the offset with the given one consistently with {@link ByteBuffer#compareTo}.
+     */
+    private int compareKeyAt(final int offset, @NotNull final ByteBuffer key) {
+        final int length = records.getInt(offset);
+        final int start = offset + Integer.BYTES;
+        final int common = Math.min(length, key.remaining());
+        for (int i = 0; i < common; i++) {
+            final int cmp = Byte.compare(records.get(start + i), key.get(key.position() + i));
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return length - key.remaining();
+    }
+
+    private int nextOffset(final int offset) {
+        final int valueOffset = offset + Integer.BYTES + records.getInt(offset);
+        return valueOffset + Integer.BYTES + records.getInt(valueOffset);
+    }
+
+    /**
+     * Finds the offset of the first record with the key not less than the given one.
+     */
+    private int ceiling(@NotNull final ByteBuffer key) {
+        // The last indexed record not greater than the key
+        int left = 0;
+        int right = indexSize - 1;
+        int block = 0;
+        while (left <= right) {
+            final int mid = (left + right) >>> 1;
+            if (compareKeyAt(index.getInt(mid * Integer.BYTES), key) <= 0) {
+                block = mid;
+                left = mid + 1;
+            } else {
+                right = mid - 1;
+            }
+        }
+
+        int offset = indexSize == 0 ? 0 : index.getInt(block * Integer.BYTES);
+        while (offset < records.limit() && compareKeyAt(offset, key) < 0) {
+            offset = nextOffset(offset);
+        }
+        return offset;
+    }
+
+    /**
+     * Finds the last indexed record before the offset.
+     *
+     * @return number of the index entry or {@code -1} if there is none
+     */
+    private int blockBefore(final int offset) {
+        int left = 0;
+        int right = indexSize - 1;
+        int block = -1;
+        while (left <= right) {
+            final int mid = (left + right) >>> 1;
+            if (index.getInt(mid * Integer.BYTES) < offset) {
+                block = mid;
+                left = mid + 1;
+            } else {
+                right = mid - 1;
+            }
+        }
+        return block;
+    }
+
+    @NotNull
+    private Record recordAt(final int offset) {
+        return Record.of(slice(offset), slice(offset + Integer.BYTES + records.getInt(offset)));
+    }
+
+    @NotNull
+    private ByteBuffer slice(final int offset) {
+        return records.duplicate().position(offset + Integer.BYTES)
+                .limit(offset + Integer.BYTES + records.getInt(offset)).slice();
+    }
+
+    @NotNull
+    @Override
+    public CloseableIterator<Record> iterator(@NotNull final ByteBuffer from) {
+        return new CloseableIterator<>() {
+            private int next = ceiling(from);
+
+            @Override
+            public boolean hasNext() {
+                return next < records.limit();
+            }
+
+            @Override
+            public Record next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException("No more records");
+                }
+                final Record record = recordAt(next);
+                next = nextOffset(next);
+                return record;
+            }
+
+            @Override
+            public void close() {
+                // The mapping lives as long as the DAO
+            }
+        };
+    }
+
+    @NotNull
+    @Override
+    public CloseableIterator<Record> descendingRange(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) {
+        return new DescendingIterator(from, to == null ? records.limit() : ceiling(to));
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer get(@NotNull final ByteBuffer key) throws NoSuchElementException {
+        final int offset = ceiling(key);
+        if (offset >= records.limit() || compareKeyAt(offset, key) != 0) {
+            throw new NoSuchElementLite();
+        }
+        return slice(offset + Integer.BYTES + records.getInt(offset));
+    }
+
+    @Override
+    public void upsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) throws ReadOnlyStorageException {
+        throw new ReadOnlyStorageException("Dataset is read-only");
+    }
+
+    @Override
+    public void remove(@NotNull final ByteBuffer key) throws ReadOnlyStorageException {
+        throw new ReadOnlyStorageException("Dataset is read-only");
+    }
+
+    @Override
+    public void close() {
+        // The mapping is released when the buffers become unreachable
+    }
+
+    private final class DescendingIterator implements CloseableIterator<Record> {
+        @NotNull
+        private final ByteBuffer from;
+        /**
+         * Offsets of the records of the current block not returned yet.
+         */
+        private final int[] offsets = new int[interval];
+        private int count;
+        private int block;
+
+        /**
+         * Starts with the record right before the end offset.
+         */
+        DescendingIterator(
+                @NotNull final ByteBuffer from,
+                final int end) {
+            this.from = from;
+            this.block = blockBefore(end);
+            load(end);
+        }
+
+        /**
+         * Collects the offsets of the current block records before the end.
+         */
+        private void load(final int end) {
+            count = 0;
+            if (block < 0) {
+                return;
+            }
+            for (int offset = index.getInt(block * Integer.BYTES); offset < end; offset = nextOffset(offset)) {
+                offsets[count++] = offset;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (count == 0 && block > 0) {
+                final int end = index.getInt(block * Integer.BYTES);
+                block--;
+                load(end);
+            }
+            return count > 0 && compareKeyAt(offsets[count - 1], from) >= 0;
+        }
+
+        @Override
+        public Record next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("No more records");
+            }
+            return recordAt(offsets[--count]);
+        }
+
+        @Override
+        public void close() {
+            // The mapping lives as long as the DAO
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package ru.mail.polis.dao.impl;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.mail.polis.dao.Cursor;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Scans consecutive sub-ranges of a shared view in parallel and yields their records in order.
+ * Every sub-range is read ahead into a bounded queue of batches, so a slow consumer holds back the producers.
+ * The sub-ranges ahead of the one being consumed share a budget of bytes read ahead, the current one
+ * is never held back by it, so it can't wait for the ones behind it to be consumed.
+ */
+final class ParallelScanCursor implements Cursor {
+    /**
+     * Bytes of the records read ahead by all the sub-ranges of a cursor.
+     */
+    static final long READ_AHEAD_BYTES = Long.getLong("dao.rocks.scan.buffer.bytes", 16L * 1024 * 1024);
+    private static final int BATCH_SIZE = 256;
+    private static final int QUEUE_BATCHES = 4;
+    /**
+     * Share of the budget to complete a batch at, whatever the number of records in it.
+     */
+    private static final int BATCHES_PER_BUDGET = 16;
+
+    private final Source source;
+    private final List<Segment> segments;
+    private final long readAheadBytes;
+    private final long batchBytes;
+    private final AtomicLong buffered = new AtomicLong();
+
+    private volatile boolean cancelled;
+    /**
+     * Number of the sub-range being consumed.
+     */
+    private volatile int segment;
+    private boolean closed;
+    private Batch batch = Batch.END;
+    private int index;
+
+    /**
+     * Opens the cursors over the sub-ranges of a single consistent view of the storage, like a snapshot.
+     */
+    interface Source {
+        /**
+         * Opens a cursor from the key (inclusive) until the bound (exclusive), may be called concurrently.
+         * The keys and values of the cursor must stay valid after the step, since they are read ahead.
+         */
+        @NotNull
+        Cursor open(
+                @NotNull ByteBuffer from,
+                @Nullable ByteBuffer to);
+
+        /**
+         * Releases the view once all the cursors are closed.
+         */
+        void close();
+    }
+
+    ParallelScanCursor(
+            @NotNull final Source source,
+            @NotNull final ForkJoinPool pool,
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to,
+            @NotNull final List<ByteBuffer> splits) {
+        this(source, pool, from, to, splits, READ_AHEAD_BYTES);
+    }
+
+    /**
+     * Takes over the source, which is closed together with the cursor.
+     *
+     * @param splits         keys inside the range splitting it into sub-ranges, in ascending order
+     * @param readAheadBytes bytes of the records the sub-ranges ahead of the current one may read ahead
+     */
+    ParallelScanCursor(
+            @NotNull final Source source,
+            @NotNull final ForkJoinPool pool,
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to,
+            @NotNull final List<ByteBuffer> splits,
+            final long readAheadBytes) {
+        this.source = source;
+        this.segments = new ArrayList<>(splits.size() + 1);
+        this.readAheadBytes = readAheadBytes;
+        this.batchBytes = Math.max(1, readAheadBytes / BATCHES_PER_BUDGET);
+        ByteBuffer lower = from;
+        try {
+            for (int i = 0; i <= splits.size(); i++) {
+                final ByteBuffer upper = i == splits.size() ? to : splits.get(i);
+                final Segment next = new Segment(i, lower, upper);
+                segments.add(next);
+                next.task = pool.submit(next::produce);
+                lower = upper;
+            }
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean advance() {
+        while (!closed) {
+            if (index + 2 < batch.records.size()) {
+                index += 2;
+                return true;
+            }
+            if (segment == segments.size()) {
+                batch = Batch.END;
+                return false;
+            }
+            final Segment current = segments.get(segment);
+            buffered.addAndGet(-batch.bytes);
+            batch = current.take();
+            index = -2;
+            if (batch.last) {
+                final Throwable failure = current.failure;
+                if (failure != null) {
+                    close();
+                    throw new IllegalStateException("Can't scan sub-range", failure);
+                }
+                segment++;
+            }
+        }
+        return false;
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer key() {
+        checkValid();
+        return batch.records.get(index);
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer value() {
+        checkValid();
+        return batch.records.get(index + 1);
+    }
+
+    private void checkValid() {
+        if (closed || index < 0 || index >= batch.records.size()) {
+            throw new NoSuchElementException("No current record");
+        }
+    }
+
+    /**
+     * Stops the producers and waits for them, since the view must outlive their cursors.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        cancelled = true;
+        batch = Batch.END;
+        for (final Segment next : segments) {
+            next.queue.clear();
+            if (next.task != null) {
+                next.task.quietlyJoin();
+            }
+        }
+        source.close();
+    }
+
+    /**
+     * Bytes of the records read ahead and not consumed yet.
+     */
+    long bufferedBytes() {
+        return buffered.get();
+    }
+
+    /**
+     * Records read ahead from a sub-range, the last batch of the sub-range has none.
+     */
+    private static final class Batch {
+        static final Batch END = new Batch(Collections.emptyList(), 0, true);
+
+        /**
+         * Keys and values, interleaved.
+         */
+        final List<ByteBuffer> records;
+        final long bytes;
+        final boolean last;
+
+        Batch(
+                @NotNull final List<ByteBuffer> records,
+                final long bytes,
+                final boolean last) {
+            this.records = records;
+            this.bytes = bytes;
+            this.last = last;
+        }
+    }
+
+    private final class Segment {
+        private final int number;
+        private final ByteBuffer from;
+        @Nullable
+        private final ByteBuffer to;
+        private final BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(QUEUE_BATCHES);
+        private ForkJoinTask<?> task;
+        private volatile Throwable failure;
+
+        Segment(
+                final int number,
+                @NotNull final ByteBuffer from,
+                @Nullable final ByteBuffer to) {
+            this.number = number;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * Reads the sub-range ahead, the end is marked whatever stops the reading, errors included.
+         */
+        void produce() {
+            try (Cursor cursor = source.open(from, to)) {
+                List<ByteBuffer> records = new ArrayList<>(BATCH_SIZE * 2);
+                long bytes = 0;
+                while (!cancelled && cursor.advance()) {
+                    final ByteBuffer key = cursor.key();
+                    final ByteBuffer value = cursor.value();
+                    records.add(key);
+                    records.add(value);
+                    bytes += key.remaining() + value.remaining();
+                    if (records.size() == BATCH_SIZE * 2 || bytes >= batchBytes) {
+                        put(new Batch(records, bytes, false));
+                        records = new ArrayList<>(BATCH_SIZE * 2);
+                        bytes = 0;
+                    }
+                }
+                if (!records.isEmpty()) {
+                    put(new Batch(records, bytes, false));
+                }
+            } catch (RuntimeException | Error e) {
+                failure = e;
+            } finally {
+                finish();
+            }
+        }
+
+        /**
+         * Marks the end of the sub-range, on failure the records read ahead are dropped to make room.
+         */
+        private void finish() {
+            if (failure == null) {
+                try {
+                    put(Batch.END);
+                    return;
+                } catch (IllegalStateException e) {
+                    failure = e;
+                }
+            }
+            for (Batch dropped = queue.poll(); dropped != null; dropped = queue.poll()) {
+                buffered.addAndGet(-dropped.bytes);
+            }
+            queue.offer(Batch.END);
+        }
+
+        /**
+         * Waits for room in the queue and in the budget letting the pool compensate for the blocked worker.
+         * Gives up silently once the cursor is closed.
+         */
+        private void put(@NotNull final Batch records) {
+            try {
+                ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                    @Override
+                    public boolean block() throws InterruptedException {
+                        while (!cancelled && !offer(records)) {
+                            // The consumer takes a batch or moves on to this sub-range
+                            TimeUnit.MILLISECONDS.sleep(1);
+                        }
+                        return true;
+                    }
+
+                    @Override
+                    public boolean isReleasable() {
+                        return cancelled || offer(records);
+                    }
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while reading ahead", e);
+            }
+        }
+
+        /**
+         * Queues the batch if there is room for it, the batch alone is let in whatever its size.
+         */
+        private boolean offer(@NotNull final Batch records) {
+            while (true) {
+                final long current = buffered.get();
+                if (number != segment && current > 0 && current + records.bytes > readAheadBytes) {
+                    return false;
+                }
+                if (buffered.compareAndSet(current, current + records.bytes)) {
+                    break;
+                }
+            }
+            if (queue.offer(records)) {
+                return true;
+            }
+            buffered.addAndGet(-records.bytes);
+            return false;
+        }
+
+        @NotNull
+        Batch take() {
+            try {
+                return queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for sub-range", e);
+            }
+        }
+    }
+}
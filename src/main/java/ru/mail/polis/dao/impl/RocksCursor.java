@@ -0,0 +1,170 @@
+package ru.mail.polis.dao.impl;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.rocksdb.ReadOptions;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.Slice;
+import org.rocksdb.Snapshot;
+import ru.mail.polis.dao.Cursor;
+
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+/**
+ * Scans an explicit snapshot, the native iterator and the snapshot are released on close.
+ * Keys and values are fetched from the native side only when asked for.
+ * A read failure ending the iteration is thrown from {@link #advance()} as {@link IllegalStateException}.
+ */
+final class RocksCursor implements Cursor {
+    private final RocksDB db;
+    @Nullable
+    private final Snapshot ownSnapshot;
+    private final ReadOptions readOptions;
+    @Nullable
+    private final Slice lowerBound;
+    @Nullable
+    private final Slice upperBound;
+    private final RocksIterator rocksIterator;
+    private final byte[] from;
+    private final boolean descending;
+
+    private boolean started;
+    private boolean valid;
+    private boolean closed;
+    private ByteBuffer key;
+    private ByteBuffer value;
+
+    /**
+     * Scans in bulk from the key (inclusive) until the bound (exclusive) checked by RocksDB itself.
+     */
+    RocksCursor(
+            @NotNull final RocksDB db,
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) {
+        this(db, null, from, to, ScanOptions.BULK);
+    }
+
+    /**
+     * Scans the given snapshot, which stays owned by the caller, or a fresh one if none given.
+     * Descending scans start at the last key before the bound and stop at the key, both checked by RocksDB.
+     */
+    RocksCursor(
+            @NotNull final RocksDB db,
+            @Nullable final Snapshot shared,
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to,
+            @NotNull final ScanOptions scan) {
+        this.db = db;
+        this.from = RocksDAO.toArray(from);
+        this.descending = scan.isDescending();
+        this.ownSnapshot = shared == null ? db.getSnapshot() : null;
+        final Snapshot snapshot = shared == null ? ownSnapshot : shared;
+        this.readOptions = new ReadOptions()
+                .setSnapshot(snapshot)
+                .setTotalOrderSeek(true)
+                .setFillCache(scan.fillCache())
+                .setReadaheadSize(scan.readaheadSize());
+        if (to == null) {
+            this.upperBound = null;
+        } else {
+            this.upperBound = new Slice(RocksDAO.toArray(to));
+            readOptions.setIterateUpperBound(upperBound);
+        }
+        if (descending) {
+            this.lowerBound = new Slice(this.from);
+            readOptions.setIterateLowerBound(lowerBound);
+        } else {
+            this.lowerBound = null;
+        }
+        this.rocksIterator = db.newIterator(readOptions);
+    }
+
+    @Override
+    public boolean advance() {
+        if (closed) {
+            return false;
+        }
+        if (!started) {
+            started = true;
+            if (descending) {
+                // Respects the upper bound
+                rocksIterator.seekToLast();
+            } else {
+                rocksIterator.seek(from);
+            }
+        } else if (valid) {
+            if (descending) {
+                rocksIterator.prev();
+            } else {
+                rocksIterator.next();
+            }
+        }
+        key = null;
+        value = null;
+        valid = rocksIterator.isValid();
+        if (!valid) {
+            checkStatus();
+        }
+        return valid;
+    }
+
+    /**
+     * Tells a read failure from the end of the range, the iterator is invalid in both cases.
+     */
+    private void checkStatus() {
+        try {
+            rocksIterator.status();
+        } catch (RocksDBException e) {
+            throw new IllegalStateException("Can't scan", e);
+        }
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer key() {
+        checkValid();
+        if (key == null) {
+            key = ByteBuffer.wrap(rocksIterator.key());
+        }
+        return key;
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer value() {
+        checkValid();
+        if (value == null) {
+            value = ByteBuffer.wrap(rocksIterator.value());
+        }
+        return value;
+    }
+
+    private void checkValid() {
+        if (closed || !valid) {
+            throw new NoSuchElementException("No current record");
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        valid = false;
+        rocksIterator.close();
+        readOptions.close();
+        if (upperBound != null) {
+            upperBound.close();
+        }
+        if (lowerBound != null) {
+            lowerBound.close();
+        }
+        if (ownSnapshot != null) {
+            db.releaseSnapshot(ownSnapshot);
+        }
+    }
+}
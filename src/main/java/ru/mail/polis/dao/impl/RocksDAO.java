@@ -1,96 +1,724 @@
-package ru.mail.polis.dao.impl;
-
-import java.io.File;
-import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.util.Iterator;
-import java.util.NoSuchElementException;
-
-import org.jetbrains.annotations.NotNull;
-
-import org.rocksdb.ComparatorOptions;
-import org.rocksdb.Options;
-import org.rocksdb.RocksDB;
-import org.rocksdb.RocksDBException;
-import org.rocksdb.util.BytewiseComparator;
-
-import ru.mail.polis.Record;
-import ru.mail.polis.dao.DAO;
-
-public class RocksDAO implements DAO {
-    private RocksDB db;
-
-    /**
-     * @param data Database file
-     */
-    public RocksDAO(@NotNull final File data) throws RocksDBException {
-        RocksDB.loadLibrary();
-        final Options options = new Options().setCreateIfMissing(true);
-        options.setComparator(new BytewiseComparator(new ComparatorOptions()));
-        db = RocksDB.open(options, data.getAbsolutePath());
-    }
-
-    private ByteBuffer deepCopy(final ByteBuffer src) {
-        final ByteBuffer srcCopy = src.duplicate();
-        final ByteBuffer clone = ByteBuffer.allocate(srcCopy.capacity());
-        srcCopy.rewind();
-        clone.put(srcCopy);
-        clone.flip();
-        return clone;
-    }
-
-    @Override
-    public void upsert(
-            @NotNull final ByteBuffer key,
-            @NotNull final ByteBuffer value) {
-        try {
-            db.put(deepCopy(key).array(), deepCopy(value).array());
-        } catch (RocksDBException ignored) {
-
-        }
-    }
-
-    @Override
-    public void remove(@NotNull final ByteBuffer key) {
-        try {
-            db.delete(deepCopy(key).array());
-        } catch (RocksDBException ignored) {
-
-        }
-    }
-
-    @NotNull
-    @Override
-    public Iterator<Record> iterator(@NotNull final ByteBuffer from) {
-        return new RocksRecordIterator(db, from);
-    }
-
-    @Override
-    public void close() throws IOException {
-        db.close();
-    }
-
-    @NotNull
-    @Override
-    public ByteBuffer get(@NotNull final ByteBuffer key) throws NoSuchElementException {
-        byte[] bytes = null;
-        try {
-            bytes = db.get(deepCopy(key).array());
-        } catch (RocksDBException ignored) {
-
-        }
-        if (bytes == null) {
-            throw new NoSuchElementLite();
-        }
-        return ByteBuffer.wrap(bytes);
-    }
-
-    @Override
-    public void compact() {
-        try {
-            db.compactRange();
-        } catch (RocksDBException ignored) {
-
-        }
-    }
-}
+package ru.mail.polis.dao.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.google.common.primitives.UnsignedBytes;
+
+import org.rocksdb.BlockBasedTableConfig;
+import org.rocksdb.BloomFilter;
+import org.rocksdb.Cache;
+import org.rocksdb.ComparatorOptions;
+import org.rocksdb.Filter;
+import org.rocksdb.LRUCache;
+import org.rocksdb.LiveFileMetaData;
+import org.rocksdb.Options;
+import org.rocksdb.Range;
+import org.rocksdb.RateLimiter;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.Slice;
+import org.rocksdb.Snapshot;
+import org.rocksdb.Statistics;
+import org.rocksdb.Status;
+import org.rocksdb.TickerType;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
+import org.rocksdb.util.BytewiseComparator;
+
+import ru.mail.polis.Record;
+import ru.mail.polis.dao.CloseableIterator;
+import ru.mail.polis.dao.CompactionTask;
+import ru.mail.polis.dao.Cursor;
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.Iters;
+import ru.mail.polis.dao.Mutation;
+import ru.mail.polis.dao.RangeSize;
+import ru.mail.polis.dao.WriteStalledException;
+
+public class RocksDAO implements DAO {
+    /**
+     * Bloom filter bits per key, zero disables the filters.
+     */
+    private static final double BLOOM_BITS_PER_KEY =
+            Double.parseDouble(System.getProperty("dao.rocks.bloom.bits", "10"));
+    /**
+     * Length of the key prefix to build the filters over as well, zero for whole keys only.
+     */
+    private static final int BLOOM_PREFIX_LENGTH = Integer.getInteger("dao.rocks.bloom.prefix", 0);
+    private static final boolean BLOOM_WHOLE_KEY =
+            Boolean.parseBoolean(System.getProperty("dao.rocks.bloom.wholeKey", "true"));
+
+    /**
+     * Block cache budget in bytes shared by all the instances in the JVM.
+     */
+    private static final long BLOCK_CACHE_SIZE = Long.getLong("dao.rocks.cache.bytes", 64L * 1024 * 1024);
+
+    /**
+     * Maximum number of sub-ranges scanned in parallel, one disables splitting.
+     */
+    private static final int SCAN_PARALLELISM =
+            Integer.getInteger("dao.rocks.scan.parallelism", Runtime.getRuntime().availableProcessors());
+    /**
+     * Minimum estimated size of a sub-range in bytes.
+     */
+    private static final long SCAN_SPLIT_SIZE = Long.getLong("dao.rocks.scan.split.bytes", 64L * 1024 * 1024);
+
+    /**
+     * Flush and compaction write rate limit in bytes per second, zero disables the limit and is the default.
+     * Flushes share the limit, so a low one stalls the writes waiting for the memtables to be flushed.
+     */
+    private static final long COMPACTION_RATE = Long.getLong("dao.rocks.compaction.rate", 0);
+    /**
+     * Number of key ranges a manual compaction is split into.
+     */
+    private static final int COMPACTION_PARTS = Integer.getInteger("dao.rocks.compaction.parts", 16);
+
+    /**
+     * Whether writes fail with {@link WriteStalledException} instead of waiting while RocksDB delays them.
+     * Off by default: the delayed writes just slow down, the stall monitor sheds them once they stop.
+     */
+    private static final boolean NO_SLOWDOWN =
+            Boolean.parseBoolean(System.getProperty("dao.rocks.write.noSlowdown", "false"));
+    /**
+     * Whether every write waits for the log to be synced to disk, concurrent writes share the sync.
+     */
+    private static final boolean WAL_SYNC = Boolean.getBoolean("dao.rocks.wal.sync");
+    /**
+     * Number of mutations to stop adding concurrent writes to a group at.
+     */
+    private static final int GROUP_COMMIT_SIZE = Integer.getInteger("dao.rocks.group.size", 1024);
+    /**
+     * Number of L0 files to stall writes at, the default matches RocksDB slowdown trigger.
+     */
+    private static final long STALL_LEVEL0_FILES = Long.getLong("dao.rocks.stall.level0", 20);
+    /**
+     * Estimated pending compaction bytes to stall writes at, the default matches RocksDB soft limit.
+     */
+    private static final long STALL_PENDING_BYTES =
+            Long.getLong("dao.rocks.stall.pending.bytes", 64L * 1024 * 1024 * 1024);
+
+    private RocksDB db;
+    private final Options options;
+    private final Statistics statistics;
+    private final Filter filter;
+    private final WriteOptions writeOptions = new WriteOptions().setNoSlowdown(NO_SLOWDOWN).setSync(WAL_SYNC);
+    private final GroupCommit groupCommit = new GroupCommit(this::write, GROUP_COMMIT_SIZE);
+    private final RateLimiter rateLimiter;
+    private final CompactionScheduler compactions;
+    private final WriteStallMonitor stallMonitor;
+    private final LiveFilesCache liveFiles;
+    private final AtomicLong stallRejections = new AtomicLong();
+
+    /**
+     * @param data Database file
+     */
+    public RocksDAO(@NotNull final File data) throws RocksDBException {
+        RocksDB.loadLibrary();
+        statistics = new Statistics();
+        options = new Options().setCreateIfMissing(true);
+        options.setComparator(new BytewiseComparator(new ComparatorOptions()));
+        options.setStatistics(statistics);
+
+        // Index and filter blocks are charged to the cache as well to keep memory within the budget
+        final BlockBasedTableConfig tableConfig = new BlockBasedTableConfig()
+                .setBlockCache(SharedBlockCache.INSTANCE)
+                .setCacheIndexAndFilterBlocks(true)
+                .setPinL0FilterAndIndexBlocksInCache(true);
+        if (BLOOM_BITS_PER_KEY > 0) {
+            filter = new BloomFilter(BLOOM_BITS_PER_KEY, false);
+            tableConfig.setFilterPolicy(filter)
+                    .setWholeKeyFiltering(BLOOM_WHOLE_KEY);
+            if (BLOOM_PREFIX_LENGTH > 0) {
+                options.useFixedLengthPrefixExtractor(BLOOM_PREFIX_LENGTH);
+                options.setMemtablePrefixBloomSizeRatio(0.1);
+            }
+        } else {
+            filter = null;
+        }
+        options.setTableFormatConfig(tableConfig);
+
+        // Keeps background I/O from starving the foreground reads
+        if (COMPACTION_RATE > 0) {
+            rateLimiter = new RateLimiter(COMPACTION_RATE);
+            options.setRateLimiter(rateLimiter);
+        } else {
+            rateLimiter = null;
+        }
+
+        db = RocksDB.open(options, data.getAbsolutePath());
+        compactions = new CompactionScheduler(db);
+        stallMonitor = new WriteStallMonitor(db, STALL_LEVEL0_FILES, STALL_PENDING_BYTES);
+        liveFiles = new LiveFilesCache(db);
+    }
+
+    /**
+     * Provides the bytes of the buffer, avoiding the copy if it wraps the whole array.
+     */
+    @NotNull
+    static byte[] toArray(@NotNull final ByteBuffer buffer) {
+        if (buffer.hasArray()
+                && buffer.arrayOffset() == 0
+                && buffer.position() == 0
+                && buffer.remaining() == buffer.array().length) {
+            return buffer.array();
+        }
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    @Override
+    public void upsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) throws IOException {
+        apply(Collections.singletonList(Mutation.upsert(key, value)));
+    }
+
+    @Override
+    public void remove(@NotNull final ByteBuffer key) throws IOException {
+        apply(Collections.singletonList(Mutation.remove(key)));
+    }
+
+    @Override
+    public boolean isWriteStalled() {
+        return stallMonitor.isStalled();
+    }
+
+    /**
+     * Rejects the write right away while the writes are stalled instead of queueing it up behind the stall.
+     */
+    private void checkWritable() throws WriteStalledException {
+        if (stallMonitor.isStalled()) {
+            stallRejections.incrementAndGet();
+            throw new WriteStalledException("Writes are stalled");
+        }
+    }
+
+    /**
+     * Tells the writes RocksDB refused to delay from the failed ones.
+     */
+    @NotNull
+    private IOException writeFailure(
+            @NotNull final String message,
+            @NotNull final RocksDBException e) {
+        final Status status = e.getStatus();
+        if (NO_SLOWDOWN && status != null && status.getCode() == Status.Code.Incomplete) {
+            stallRejections.incrementAndGet();
+            return new WriteStalledException(message + ", writes are delayed", e);
+        }
+        return new IOException(message, e);
+    }
+
+    /**
+     * Looks all the keys up with a single native call.
+     */
+    @NotNull
+    @Override
+    public CloseableIterator<Record> getAll(@NotNull final Collection<ByteBuffer> keys) throws IOException {
+        final List<byte[]> rawKeys = new ArrayList<>(keys.size());
+        for (final ByteBuffer key : keys) {
+            rawKeys.add(toArray(key));
+        }
+        final List<byte[]> values;
+        try {
+            values = db.multiGetAsList(rawKeys);
+        } catch (RocksDBException e) {
+            throw new IOException("Can't get values", e);
+        }
+        final List<Record> found = new ArrayList<>(values.size());
+        for (int i = 0; i < values.size(); i++) {
+            final byte[] value = values.get(i);
+            if (value != null) {
+                found.add(Record.of(ByteBuffer.wrap(rawKeys.get(i)), ByteBuffer.wrap(value)));
+            }
+        }
+        return Iters.closeable(found.iterator());
+    }
+
+    /**
+     * Closes an open range right after the last key present at the moment.
+     *
+     * @return the exclusive end of the range or {@code null} if the storage is empty
+     */
+    @Nullable
+    private byte[] upperBound(@Nullable final ByteBuffer to) {
+        if (to != null) {
+            return toArray(to);
+        }
+        try (RocksIterator iterator = db.newIterator()) {
+            iterator.seekToLast();
+            if (!iterator.isValid()) {
+                return null;
+            }
+            final byte[] last = iterator.key();
+            return Arrays.copyOf(last, last.length + 1);
+        }
+    }
+
+    /**
+     * Writes a single range tombstone, an open range ends right after the last key present at the moment.
+     */
+    @Override
+    public void removeRange(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) throws IOException {
+        final byte[] begin = toArray(from);
+        final byte[] end = upperBound(to);
+        if (end == null || UnsignedBytes.lexicographicalComparator().compare(begin, end) >= 0) {
+            return;
+        }
+
+        checkWritable();
+        try {
+            db.deleteRange(writeOptions, begin, end);
+        } catch (RocksDBException e) {
+            throw writeFailure("Can't remove range", e);
+        }
+    }
+
+    /**
+     * Applies the batch atomically, sharing a single write to the log with the batches applied concurrently.
+     * Readers see either the whole batch or nothing of it.
+     */
+    @Override
+    public void apply(@NotNull final List<Mutation> batch) throws IOException {
+        checkWritable();
+        groupCommit.commit(batch);
+    }
+
+    private void write(@NotNull final List<Mutation> batch) throws IOException {
+        try (WriteBatch writeBatch = new WriteBatch()) {
+            for (final Mutation mutation : batch) {
+                final ByteBuffer value = mutation.getValue();
+                if (value == null) {
+                    writeBatch.delete(toArray(mutation.getKey()));
+                } else {
+                    writeBatch.put(toArray(mutation.getKey()), toArray(value));
+                }
+            }
+            db.write(writeOptions, writeBatch);
+        } catch (RocksDBException e) {
+            throw writeFailure("Can't write batch", e);
+        }
+    }
+
+    @NotNull
+    @Override
+    public CloseableIterator<Record> iterator(@NotNull final ByteBuffer from) {
+        return new RocksRecordIterator(new RocksCursor(db, from, null));
+    }
+
+    /**
+     * Lets RocksDB stop at the bound instead of comparing every record past the seek,
+     * an empty range ends right at the seek.
+     */
+    @NotNull
+    @Override
+    public CloseableIterator<Record> range(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) {
+        return new RocksRecordIterator(new RocksCursor(db, from, to));
+    }
+
+    /**
+     * Reads the ranges estimated to be small as short scans and splits the large ones to scan them in parallel.
+     */
+    @NotNull
+    @Override
+    public Cursor cursor(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) {
+        final byte[] lower = toArray(from);
+        final byte[] upper = to == null ? null : toArray(to);
+        final List<LiveFileMetaData> files = overlappingFiles(liveFiles.get(), lower, upper);
+        if (estimate(files, lower, upper).getBytes() <= ScanOptions.SHORT_SCAN_BYTES) {
+            return new RocksCursor(db, null, from, to, ScanOptions.SHORT);
+        }
+        final List<ByteBuffer> splits = splitKeys(files, lower, upper, SCAN_PARALLELISM, SCAN_SPLIT_SIZE);
+        if (splits.isEmpty()) {
+            return new RocksCursor(db, from, to);
+        }
+        return new ParallelScanCursor(new SnapshotSource(db), ScanPool.INSTANCE, from, to, splits);
+    }
+
+    /**
+     * Reads the limited ranges with a single cursor, a short scan for a few records.
+     * Splitting would read the sub-ranges past the limit ahead of the consumer.
+     */
+    @NotNull
+    @Override
+    public Cursor cursor(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to,
+            final long limit) {
+        if (limit == Long.MAX_VALUE) {
+            return cursor(from, to);
+        }
+        return new RocksCursor(db, null, from, to, ScanOptions.forLimit(limit));
+    }
+
+    @NotNull
+    @Override
+    public CloseableIterator<Record> descendingRange(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) {
+        return new RocksRecordIterator(new RocksCursor(db, null, from, to, ScanOptions.BULK.descending()));
+    }
+
+    @NotNull
+    @Override
+    public Cursor descendingCursor(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) {
+        return new RocksCursor(db, null, from, to, ScanOptions.BULK.descending());
+    }
+
+    @NotNull
+    @Override
+    public Cursor descendingCursor(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to,
+            final long limit) {
+        return new RocksCursor(db, null, from, to, ScanOptions.forLimit(limit).descending());
+    }
+
+    /**
+     * Estimates the size from the SST files overlapping the range, assuming keys spread evenly within a file,
+     * and adds the memtable estimates of the writes not flushed yet.
+     * Overwrites and removals still to be compacted are counted as records.
+     */
+    @NotNull
+    @Override
+    public RangeSize approximateSize(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) {
+        final byte[] lower = toArray(from);
+        final byte[] upper = to == null ? null : toArray(to);
+        final RangeSize flushed = estimate(overlappingFiles(db.getLiveFilesMetaData(), lower, upper), lower, upper);
+
+        final byte[] end = upperBound(to);
+        if (end == null || UnsignedBytes.lexicographicalComparator().compare(lower, end) >= 0) {
+            return flushed;
+        }
+        final RocksDB.CountAndSize memTables;
+        try (Slice start = new Slice(lower);
+             Slice limit = new Slice(end)) {
+            memTables = db.getApproximateMemTableStats(new Range(start, limit));
+        }
+        return new RangeSize(flushed.getCount() + memTables.count, flushed.getBytes() + memTables.size);
+    }
+
+    @NotNull
+    private static RangeSize estimate(
+            @NotNull final List<LiveFileMetaData> files,
+            @NotNull final byte[] lower,
+            @Nullable final byte[] upper) {
+        double count = 0;
+        double bytes = 0;
+        for (final LiveFileMetaData file : files) {
+            final double share = overlapShare(file.smallestKey(), file.largestKey(), lower, upper);
+            count += share * file.numEntries();
+            bytes += share * file.size();
+        }
+        return new RangeSize(Math.round(count), Math.round(bytes));
+    }
+
+    /**
+     * Interpolates the share of the file key span covered by the range on the bytes following the common prefix.
+     */
+    private static double overlapShare(
+            @NotNull final byte[] smallest,
+            @NotNull final byte[] largest,
+            @NotNull final byte[] lower,
+            @Nullable final byte[] upper) {
+        int common = 0;
+        while (common < smallest.length && common < largest.length && smallest[common] == largest[common]) {
+            common++;
+        }
+        final double first = position(smallest, common);
+        final double last = position(largest, common);
+        if (last <= first) {
+            return 1.0;
+        }
+        // Keys within the span share its prefix, the ones outside are clamped
+        final Comparator<byte[]> comparator = UnsignedBytes.lexicographicalComparator();
+        final double begin = comparator.compare(lower, smallest) <= 0 ? first : position(lower, common);
+        final double end = upper == null || comparator.compare(upper, largest) > 0 ? last : position(upper, common);
+        return Math.max(0.0, Math.min(1.0, (end - begin) / (last - first)));
+    }
+
+    /**
+     * Reads eight bytes of the key starting at the offset as an unsigned fraction of the key space.
+     */
+    private static double position(
+            @NotNull final byte[] key,
+            final int offset) {
+        double position = 0;
+        double scale = 1.0;
+        for (int i = offset; i < offset + Long.BYTES; i++) {
+            scale /= 256;
+            if (i < key.length) {
+                position += (key[i] & 0xFF) * scale;
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Picks the live SST files with key spans intersecting the range.
+     */
+    @NotNull
+    private static List<LiveFileMetaData> overlappingFiles(
+            @NotNull final List<LiveFileMetaData> live,
+            @NotNull final byte[] lower,
+            @Nullable final byte[] upper) {
+        final Comparator<byte[]> comparator = UnsignedBytes.lexicographicalComparator();
+        final List<LiveFileMetaData> files = new ArrayList<>();
+        for (final LiveFileMetaData file : live) {
+            if (comparator.compare(file.largestKey(), lower) >= 0
+                    && (upper == null || comparator.compare(file.smallestKey(), upper) < 0)) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Picks SST file boundaries splitting the range into parts of about the same size on disk.
+     *
+     * @param files live SST files overlapping the range, sorted in place
+     * @return split keys in ascending order, empty if the range is too small to split
+     */
+    @NotNull
+    private static List<ByteBuffer> splitKeys(
+            @NotNull final List<LiveFileMetaData> files,
+            @NotNull final byte[] lower,
+            @Nullable final byte[] upper,
+            final int maxParts,
+            final long minPartSize) {
+        if (maxParts < 2) {
+            return Collections.emptyList();
+        }
+
+        long total = 0;
+        for (final LiveFileMetaData file : files) {
+            total += file.size();
+        }
+
+        final int parts = (int) Math.min(maxParts, total / minPartSize);
+        if (parts < 2) {
+            return Collections.emptyList();
+        }
+
+        final Comparator<byte[]> comparator = UnsignedBytes.lexicographicalComparator();
+        files.sort(Comparator.comparing(LiveFileMetaData::smallestKey, comparator));
+        final List<ByteBuffer> splits = new ArrayList<>(parts - 1);
+        byte[] last = lower;
+        long accumulated = 0;
+        for (final LiveFileMetaData file : files) {
+            if (accumulated >= total * (splits.size() + 1) / parts) {
+                final byte[] key = file.smallestKey();
+                if (comparator.compare(key, last) > 0
+                        && (upper == null || comparator.compare(key, upper) < 0)) {
+                    splits.add(ByteBuffer.wrap(key));
+                    last = key;
+                    if (splits.size() == parts - 1) {
+                        break;
+                    }
+                }
+            }
+            accumulated += file.size();
+        }
+        return splits;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            compactions.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while stopping compaction", e);
+        }
+        db.close();
+        writeOptions.close();
+        options.close();
+        statistics.close();
+        if (filter != null) {
+            filter.close();
+        }
+        if (rateLimiter != null) {
+            rateLimiter.close();
+        }
+    }
+
+    @NotNull
+    @Override
+    public Map<String, Number> stats() {
+        final Map<String, Number> stats = new LinkedHashMap<>();
+        // Misses ruled out by the filters and misses the filters let through
+        final long useful = statistics.getTickerCount(TickerType.BLOOM_FILTER_USEFUL);
+        final long falsePositive = statistics.getTickerCount(TickerType.BLOOM_FILTER_FULL_POSITIVE)
+                - statistics.getTickerCount(TickerType.BLOOM_FILTER_FULL_TRUE_POSITIVE);
+        stats.put("bloom.useful", useful);
+        stats.put("bloom.false_positive", falsePositive);
+        stats.put("bloom.false_positive_rate",
+                useful + falsePositive == 0 ? 0.0 : (double) falsePositive / (useful + falsePositive));
+
+        final long hits = statistics.getTickerCount(TickerType.BLOCK_CACHE_HIT);
+        final long misses = statistics.getTickerCount(TickerType.BLOCK_CACHE_MISS);
+        stats.put("cache.capacity", BLOCK_CACHE_SIZE);
+        // The cache is shared, so every instance reports the usage of all of them
+        stats.put("cache.usage", property("rocksdb.block-cache-usage"));
+        stats.put("cache.hit", hits);
+        stats.put("cache.miss", misses);
+        stats.put("cache.hit_rate", hits + misses == 0 ? 0.0 : (double) hits / (hits + misses));
+        stats.put("cache.data.hit", statistics.getTickerCount(TickerType.BLOCK_CACHE_DATA_HIT));
+        stats.put("cache.data.miss", statistics.getTickerCount(TickerType.BLOCK_CACHE_DATA_MISS));
+        stats.put("cache.index.hit", statistics.getTickerCount(TickerType.BLOCK_CACHE_INDEX_HIT));
+        stats.put("cache.index.miss", statistics.getTickerCount(TickerType.BLOCK_CACHE_INDEX_MISS));
+        stats.put("cache.filter.hit", statistics.getTickerCount(TickerType.BLOCK_CACHE_FILTER_HIT));
+        stats.put("cache.filter.miss", statistics.getTickerCount(TickerType.BLOCK_CACHE_FILTER_MISS));
+        // Every open scan holds one, so the count grows with the scans left open
+        stats.put("snapshots", property("rocksdb.num-snapshots"));
+        stats.put("write.stalled", stallMonitor.isStalled() ? 1 : 0);
+        stats.put("write.stall.rejected", stallRejections.get());
+        stats.put("write.group.count", groupCommit.groups());
+        stats.put("write.group.commits", groupCommit.commits());
+        stats.put("write.group.queued", groupCommit.queued());
+        return stats;
+    }
+
+    /**
+     * Reads a property kept in memory, {@code -1} if RocksDB can't provide it.
+     */
+    private long property(@NotNull final String name) {
+        try {
+            return db.getLongProperty(name);
+        } catch (RocksDBException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Lazily created block cache living as long as the JVM.
+     */
+    private static final class SharedBlockCache {
+        static final Cache INSTANCE = new LRUCache(BLOCK_CACHE_SIZE);
+
+        private SharedBlockCache() {
+            // Holder
+        }
+    }
+
+    /**
+     * Opens the sub-range cursors of a parallel scan over a snapshot shared by them.
+     */
+    private static final class SnapshotSource implements ParallelScanCursor.Source {
+        private final RocksDB db;
+        private final Snapshot snapshot;
+
+        SnapshotSource(@NotNull final RocksDB db) {
+            this.db = db;
+            this.snapshot = db.getSnapshot();
+        }
+
+        @NotNull
+        @Override
+        public Cursor open(
+                @NotNull final ByteBuffer from,
+                @Nullable final ByteBuffer to) {
+            return new RocksCursor(db, snapshot, from, to, ScanOptions.BULK);
+        }
+
+        @Override
+        public void close() {
+            db.releaseSnapshot(snapshot);
+        }
+    }
+
+    /**
+     * Lazily created pool scanning sub-ranges for all the instances in the JVM.
+     */
+    private static final class ScanPool {
+        static final ForkJoinPool INSTANCE = new ForkJoinPool(SCAN_PARALLELISM);
+
+        private ScanPool() {
+            // Holder
+        }
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer get(@NotNull final ByteBuffer key) throws IOException, NoSuchElementException {
+        final byte[] bytes;
+        try {
+            bytes = db.get(toArray(key));
+        } catch (RocksDBException e) {
+            throw new IOException("Can't get value", e);
+        }
+        if (bytes == null) {
+            throw new NoSuchElementLite();
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+
+    @Override
+    public int get(
+            @NotNull final ByteBuffer key,
+            @NotNull final byte[] value) throws IOException, NoSuchElementException {
+        final int length;
+        try {
+            length = db.get(toArray(key), value);
+        } catch (RocksDBException e) {
+            throw new IOException("Can't get value", e);
+        }
+        if (length == RocksDB.NOT_FOUND) {
+            throw new NoSuchElementLite();
+        }
+        return length;
+    }
+
+    @Override
+    public void compact() throws IOException {
+        final CompactionTask task = compactInBackground();
+        try {
+            task.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compacting", e);
+        }
+        // Cancelled on close or by an admin request, the storage is left partly compacted
+        if (task.state() != CompactionTask.State.DONE) {
+            throw new IOException("Can't compact: " + task.state());
+        }
+    }
+
+    /**
+     * Compacts key ranges of about the same size on disk one by one.
+     */
+    @NotNull
+    @Override
+    public CompactionTask compactInBackground() {
+        final byte[] lower = new byte[0];
+        final List<LiveFileMetaData> files = overlappingFiles(db.getLiveFilesMetaData(), lower, null);
+        return compactions.start(splitKeys(files, lower, null, COMPACTION_PARTS, 1));
+    }
+}
@@ -1,36 +1,46 @@
-package ru.mail.polis.dao.impl;
-
-import org.rocksdb.RocksDB;
-import org.rocksdb.RocksIterator;
-import ru.mail.polis.Record;
-
-import java.nio.ByteBuffer;
-import java.util.Iterator;
-
-public class RocksRecordIterator implements Iterator<Record> {
-    private final RocksIterator rocksIterator;
-
-    RocksRecordIterator(final RocksDB db, final ByteBuffer from) {
-        super();
-        rocksIterator = db.newIterator();
-        final ByteBuffer fromCopy = from.duplicate();
-        byte[] bytes = new byte[fromCopy.capacity()];
-        fromCopy.get(bytes, 0, bytes.length);
-        rocksIterator.seek(bytes);
-    }
-
-    @Override
-    public boolean hasNext() {
-        return rocksIterator.isValid();
-    }
-
-    @Override
-    public Record next() {
-        final Record resultRecord = Record.of(ByteBuffer.wrap(rocksIterator.key()),
-                ByteBuffer.wrap(rocksIterator.value()));
-        if (rocksIterator.isValid()) {
-            rocksIterator.next();
-        }
-        return resultRecord;
-    }
-}
+package ru.mail.polis.dao.impl;
+
+import org.jetbrains.annotations.NotNull;
+import ru.mail.polis.Record;
+import ru.mail.polis.dao.CloseableIterator;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Record iterator on top of {@link RocksCursor}, the native resources are released on close.
+ */
+public class RocksRecordIterator implements CloseableIterator<Record> {
+    private final RocksCursor cursor;
+    private boolean hasNext;
+
+    /**
+     * Takes over the cursor, which must not have been advanced yet.
+     */
+    RocksRecordIterator(@NotNull final RocksCursor cursor) {
+        super();
+        this.cursor = cursor;
+        this.hasNext = cursor.advance();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return hasNext;
+    }
+
+    @Override
+    public Record next() {
+        if (!hasNext) {
+            throw new NoSuchElementException("Next on exhausted iterator");
+        }
+        // Every position gets fresh arrays from JNI, so the views outlive the step
+        final Record resultRecord = Record.of(cursor.key(), cursor.value());
+        hasNext = cursor.advance();
+        return resultRecord;
+    }
+
+    @Override
+    public void close() {
+        hasNext = false;
+        cursor.close();
+    }
+}
@@ -0,0 +1,70 @@
+package ru.mail.polis.dao.impl;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * How a {@link RocksCursor} reads the range.
+ * Bulk scans read ahead and keep their blocks out of the block cache, so they neither wait on every block
+ * nor evict the hot ones. Short scans leave the readahead to RocksDB, which starts small and grows it
+ * on sequential reads, and cache their blocks like point reads do.
+ */
+final class ScanOptions {
+    /**
+     * Readahead for the bulk scans in bytes, zero leaves it to RocksDB.
+     */
+    private static final long READAHEAD_SIZE = Long.getLong("dao.rocks.scan.readahead", 2L * 1024 * 1024);
+    /**
+     * Whether the blocks read by the bulk scans are put into the block cache evicting the hot ones.
+     */
+    private static final boolean FILL_CACHE =
+            Boolean.parseBoolean(System.getProperty("dao.rocks.scan.fillCache", "false"));
+    /**
+     * Number of records to treat a limited scan as a short one up to.
+     */
+    static final long SHORT_SCAN_RECORDS = Long.getLong("dao.rocks.scan.short.records", 1024);
+    /**
+     * Estimated range size in bytes to treat a scan as a short one up to, the readahead by default.
+     */
+    static final long SHORT_SCAN_BYTES = Long.getLong("dao.rocks.scan.short.bytes", READAHEAD_SIZE);
+
+    static final ScanOptions BULK = new ScanOptions(false, true);
+    static final ScanOptions SHORT = new ScanOptions(false, false);
+
+    private final boolean descending;
+    private final boolean bulk;
+
+    private ScanOptions(
+            final boolean descending,
+            final boolean bulk) {
+        this.descending = descending;
+        this.bulk = bulk;
+    }
+
+    /**
+     * Picks the options for a scan expected to be read for at most the given number of records.
+     */
+    @NotNull
+    static ScanOptions forLimit(final long limit) {
+        return limit <= SHORT_SCAN_RECORDS ? SHORT : BULK;
+    }
+
+    /**
+     * Same options for a descending scan.
+     */
+    @NotNull
+    ScanOptions descending() {
+        return new ScanOptions(true, bulk);
+    }
+
+    boolean isDescending() {
+        return descending;
+    }
+
+    long readaheadSize() {
+        return bulk ? READAHEAD_SIZE : 0;
+    }
+
+    boolean fillCache() {
+        return !bulk || FILL_CACHE;
+    }
+}
@@ -0,0 +1,87 @@
+package ru.mail.polis.dao.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.jetbrains.annotations.NotNull;
+
+import com.google.common.primitives.ImmutableIntArray;
+
+/**
+ * Writes the file layout shared by {@link MappedDAO} datasets and LSM tables:
+ * entries of {@code int} length prefixed fields, then the {@code int} offsets of the indexed entries,
+ * the trailer and the number of the indexed entries.
+ */
+public final class SortedFileWriter implements Closeable {
+    @NotNull
+    private final File file;
+    @NotNull
+    private final FileOutputStream stream;
+    @NotNull
+    private final DataOutputStream out;
+    private final ImmutableIntArray.Builder offsets = ImmutableIntArray.builder();
+
+    public SortedFileWriter(@NotNull final File file) throws IOException {
+        this.file = file;
+        this.stream = new FileOutputStream(file);
+        this.out = new DataOutputStream(new BufferedOutputStream(stream));
+    }
+
+    /**
+     * Starts the next entry.
+     *
+     * @param indexed whether the offset of the entry goes to the index
+     */
+    public void startEntry(final boolean indexed) throws IOException {
+        if (out.size() == Integer.MAX_VALUE) {
+            throw new IOException("File is too large: " + file);
+        }
+        if (indexed) {
+            offsets.add(out.size());
+        }
+    }
+
+    public void writeInt(final int value) throws IOException {
+        out.writeInt(value);
+    }
+
+    /**
+     * Writes the length of the buffer followed by its content.
+     */
+    public void writeBuffer(@NotNull final ByteBuffer buffer) throws IOException {
+        out.writeInt(buffer.remaining());
+        if (buffer.hasArray()) {
+            out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        } else {
+            final byte[] bytes = new byte[buffer.remaining()];
+            buffer.duplicate().get(bytes);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Writes the index and the trailer and syncs the file to the disk.
+     */
+    public void finish(@NotNull final int... trailer) throws IOException {
+        final ImmutableIntArray index = offsets.build();
+        for (int i = 0; i < index.length(); i++) {
+            out.writeInt(index.get(i));
+        }
+        for (final int value : trailer) {
+            out.writeInt(value);
+        }
+        out.writeInt(index.length());
+        out.flush();
+        stream.getChannel().force(true);
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
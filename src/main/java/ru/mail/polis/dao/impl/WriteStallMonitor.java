@@ -0,0 +1,63 @@
+package ru.mail.polis.dao.impl;
+
+import org.jetbrains.annotations.NotNull;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tells whether RocksDB stops or delays writes or is about to, polling its properties at most every 100 ms.
+ */
+final class WriteStallMonitor {
+    private static final Logger log = LoggerFactory.getLogger(WriteStallMonitor.class);
+    private static final long REFRESH_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final RocksDB db;
+    private final long level0Limit;
+    private final long pendingCompactionLimit;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    private volatile boolean stalled;
+    private volatile long checkedAt = System.nanoTime() - REFRESH_INTERVAL;
+
+    /**
+     * @param level0Limit number of L0 files to consider the writes stalled at
+     * @param pendingCompactionLimit estimated bytes to compact to consider the writes stalled at
+     */
+    WriteStallMonitor(
+            @NotNull final RocksDB db,
+            final long level0Limit,
+            final long pendingCompactionLimit) {
+        this.db = db;
+        this.level0Limit = level0Limit;
+        this.pendingCompactionLimit = pendingCompactionLimit;
+    }
+
+    boolean isStalled() {
+        final long now = System.nanoTime();
+        // Just one of the callers refreshes the state, the rest go on with the cached one
+        if (now - checkedAt >= REFRESH_INTERVAL && refreshing.compareAndSet(false, true)) {
+            try {
+                stalled = poll();
+            } catch (RocksDBException e) {
+                log.warn("Can't read write stall properties", e);
+                stalled = false;
+            } finally {
+                checkedAt = now;
+                refreshing.set(false);
+            }
+        }
+        return stalled;
+    }
+
+    private boolean poll() throws RocksDBException {
+        return db.getLongProperty("rocksdb.is-write-stopped") != 0
+                || db.getLongProperty("rocksdb.actual-delayed-write-rate") != 0
+                || db.getLongProperty("rocksdb.num-files-at-level0") >= level0Limit
+                || db.getLongProperty("rocksdb.estimate-pending-compaction-bytes") >= pendingCompactionLimit;
+    }
+}
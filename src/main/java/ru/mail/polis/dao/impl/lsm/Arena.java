@@ -0,0 +1,98 @@
+package ru.mail.polis.dao.impl.lsm;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Append-only allocator carving 8-byte aligned blocks out of large direct buffers.
+ *
+ * <p>An address packs the chunk index into the high 32 bits and the offset within the chunk
+ * into the low ones. Memory is released all at once when the arena becomes unreachable.
+ */
+final class Arena {
+    static final long NULL = 0L;
+
+    private static final int INITIAL_CHUNKS = 16;
+    private static final int ALIGNMENT = Long.BYTES;
+
+    private final int chunkSize;
+
+    // Guarded by this, the array is replaced with a larger copy when full
+    private volatile ByteBuffer[] chunks = new ByteBuffer[INITIAL_CHUNKS];
+    private int chunkCount;
+
+    private volatile Chunk current;
+
+    Arena(final int chunkSize) {
+        this.chunkSize = chunkSize;
+        // The very first block gets a non-NULL address: chunk 0, offset ALIGNMENT
+        this.current = newChunk(chunkSize);
+        current.top.set(ALIGNMENT);
+    }
+
+    /**
+     * Allocates a block of the given size.
+     *
+     * @return address of the block
+     */
+    long allocate(final int size) {
+        final int aligned = (size + ALIGNMENT - 1) & -ALIGNMENT;
+        if (aligned > chunkSize / 2) {
+            // Large blocks get their own chunks not to waste the shared ones
+            return address(newChunk(aligned).index, 0);
+        }
+        while (true) {
+            final Chunk chunk = current;
+            final int offset = chunk.top.getAndAdd(aligned);
+            if (offset + aligned <= chunkSize) {
+                return address(chunk.index, offset);
+            }
+            synchronized (this) {
+                if (current == chunk) {
+                    current = newChunk(chunkSize);
+                }
+            }
+        }
+    }
+
+    @NotNull
+    private synchronized Chunk newChunk(final int size) {
+        final int index = chunkCount++;
+        ByteBuffer[] table = chunks;
+        if (index == table.length) {
+            table = Arrays.copyOf(table, table.length * 2);
+        }
+        table[index] = ByteBuffer.allocateDirect(size);
+        // Publishes the chunk before any address within it
+        chunks = table;
+        return new Chunk(index);
+    }
+
+    private static long address(final int chunk, final int offset) {
+        return ((long) chunk << 32) | offset;
+    }
+
+    /**
+     * Returns the chunk holding the given address.
+     */
+    @NotNull
+    ByteBuffer chunk(final long address) {
+        return chunks[(int) (address >>> 32)];
+    }
+
+    static int offset(final long address) {
+        return (int) address;
+    }
+
+    private static final class Chunk {
+        final int index;
+        final AtomicInteger top = new AtomicInteger();
+
+        Chunk(final int index) {
+            this.index = index;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package ru.mail.polis.dao.impl.lsm;
+
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Key with its {@link Value} and the generation of the {@link Table} it comes from.
+ */
+final class Cell {
+    /**
+     * Orders cells by key and then from the newest generation to the oldest one,
+     * so the first cell of a key is the actual one.
+     */
+    static final Comparator<Cell> COMPARATOR = Comparator
+            .comparing(Cell::getKey)
+            .thenComparing(Cell::getGeneration, Comparator.reverseOrder());
+    /**
+     * Orders cells by key descending and then from the newest generation to the oldest one.
+     */
+    static final Comparator<Cell> DESCENDING_COMPARATOR = Comparator
+            .comparing(Cell::getKey, Comparator.reverseOrder())
+            .thenComparing(Cell::getGeneration, Comparator.reverseOrder());
+
+    @NotNull
+    private final ByteBuffer key;
+    @NotNull
+    private final Value value;
+    private final long generation;
+
+    Cell(@NotNull final ByteBuffer key,
+         @NotNull final Value value,
+         final long generation) {
+        this.key = key;
+        this.value = value;
+        this.generation = generation;
+    }
+
+    @NotNull
+    ByteBuffer getKey() {
+        return key.asReadOnlyBuffer();
+    }
+
+    @NotNull
+    Value getValue() {
+        return value;
+    }
+
+    long getGeneration() {
+        return generation;
+    }
+}
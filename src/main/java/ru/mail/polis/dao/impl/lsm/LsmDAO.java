@@ -0,0 +1,311 @@
+package ru.mail.polis.dao.impl.lsm;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.google.common.collect.Iterators;
+
+import ru.mail.polis.Record;
+import ru.mail.polis.dao.CloseableIterator;
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.Iters;
+import ru.mail.polis.dao.Mutation;
+
+/**
+ * Log-structured merge tree storage: a memtable protected by a {@link WriteAheadLog}
+ * and flushed to immutable {@link SSTable}s when it grows over the threshold.
+ *
+ * <p>The memtable is an {@link OffHeapMemTable} unless {@code dao.lsm.memtable=heap} selects {@link MemTable}.
+ */
+public final class LsmDAO implements DAO {
+    private static final String TABLE_SUFFIX = ".db";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String LOG_SUFFIX = ".log";
+    private static final Pattern FILE_NAME = Pattern.compile("(\\d+)(\\.db|\\.log|\\.tmp)");
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private static final long FLUSH_THRESHOLD = Long.getLong("dao.lsm.flush.bytes", 16L * 1024 * 1024);
+    private static final boolean SYNC_LOG = Boolean.getBoolean("dao.lsm.wal.sync");
+    private static final boolean OFF_HEAP = !"heap".equals(System.getProperty("dao.lsm.memtable"));
+
+    @NotNull
+    private final File base;
+    private final long flushThreshold;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Guarded by lock
+    private final NavigableMap<Long, Table> ssTables = new TreeMap<>();
+    private MutableTable memTable;
+    private WriteAheadLog log;
+
+    public LsmDAO(@NotNull final File base) throws IOException {
+        this(base, FLUSH_THRESHOLD);
+    }
+
+    /**
+     * Opens the storage replaying the logs left by a previous run.
+     *
+     * @param base           data directory
+     * @param flushThreshold memtable size in bytes to flush at
+     */
+    public LsmDAO(
+            @NotNull final File base,
+            final long flushThreshold) throws IOException {
+        this.base = base;
+        this.flushThreshold = flushThreshold;
+
+        final File[] files = base.listFiles();
+        if (files == null) {
+            throw new IOException("Can't list " + base);
+        }
+        final NavigableMap<Long, File> logs = new TreeMap<>();
+        for (final File file : files) {
+            final Matcher matcher = FILE_NAME.matcher(file.getName());
+            if (!matcher.matches()) {
+                continue;
+            }
+            final long generation = Long.parseLong(matcher.group(1));
+            switch (matcher.group(2)) {
+                case TABLE_SUFFIX:
+                    ssTables.put(generation, new SSTable(file, generation));
+                    break;
+                case LOG_SUFFIX:
+                    logs.put(generation, file);
+                    break;
+                default:
+                    Files.delete(file.toPath());
+                    break;
+            }
+        }
+
+        memTable = newMemTable(nextGeneration());
+        for (final File file : logs.values()) {
+            WriteAheadLog.replay(file, memTable);
+        }
+        flushMemTable();
+        for (final File file : logs.values()) {
+            Files.delete(file.toPath());
+        }
+        log = new WriteAheadLog(fileOf(memTable.generation(), LOG_SUFFIX), SYNC_LOG);
+    }
+
+    @NotNull
+    private File fileOf(final long generation, @NotNull final String suffix) {
+        return new File(base, generation + suffix);
+    }
+
+    @NotNull
+    private static MutableTable newMemTable(final long generation) {
+        return OFF_HEAP ? new OffHeapMemTable(generation) : new MemTable(generation);
+    }
+
+    private long nextGeneration() {
+        return ssTables.isEmpty() ? 1 : ssTables.lastKey() + 1;
+    }
+
+    @NotNull
+    @Override
+    public CloseableIterator<Record> iterator(@NotNull final ByteBuffer from) throws IOException {
+        return aliveRecords(cellIterator(from));
+    }
+
+    /**
+     * Skips tombstones and converts the rest of the cells to records.
+     * Tables are memory mapped for their whole lifetime, so there is nothing to release on close.
+     */
+    @NotNull
+    static CloseableIterator<Record> aliveRecords(@NotNull final Iterator<Cell> cells) {
+        final Iterator<Cell> alive = Iterators.filter(cells, cell -> !cell.getValue().isRemoved());
+        return Iters.closeable(
+                Iterators.transform(alive, cell -> Record.of(cell.getKey(), cell.getValue().getData())));
+    }
+
+    /**
+     * Merges the tables keeping the freshest cell (possibly a tombstone) for every key.
+     */
+    @NotNull
+    private Iterator<Cell> cellIterator(@NotNull final ByteBuffer from) throws IOException {
+        final List<Iterator<Cell>> iterators = new ArrayList<>(ssTables.size() + 1);
+        lock.readLock().lock();
+        try {
+            iterators.add(memTable.iterator(from));
+            for (final Table table : ssTables.descendingMap().values()) {
+                iterators.add(table.iterator(from));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        final Iterator<Cell> merged = Iterators.mergeSorted(iterators, Cell.COMPARATOR);
+        return Iters.collapseEquals(merged, Cell::getKey);
+    }
+
+    /**
+     * Merges the tables walking them backwards.
+     */
+    @NotNull
+    @Override
+    public CloseableIterator<Record> descendingRange(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) throws IOException {
+        if (to != null && from.compareTo(to) >= 0) {
+            return Iters.empty();
+        }
+        final List<Iterator<Cell>> iterators = new ArrayList<>(ssTables.size() + 1);
+        lock.readLock().lock();
+        try {
+            iterators.add(memTable.descendingIterator(from, to));
+            for (final Table table : ssTables.descendingMap().values()) {
+                iterators.add(table.descendingIterator(from, to));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        final Iterator<Cell> merged = Iterators.mergeSorted(iterators, Cell.DESCENDING_COMPARATOR);
+        return aliveRecords(Iters.collapseEquals(merged, Cell::getKey));
+    }
+
+    @Override
+    public void upsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) throws IOException {
+        apply(Collections.singletonList(Mutation.upsert(key, value)));
+    }
+
+    @Override
+    public void remove(@NotNull final ByteBuffer key) throws IOException {
+        apply(Collections.singletonList(Mutation.remove(key)));
+    }
+
+    /**
+     * Persists the batch atomically: it is logged as a single record, so a replay restores all of it or nothing.
+     * The memtable takes the mutations one by one, so concurrent readers may observe a prefix of the batch.
+     */
+    @Override
+    public void apply(@NotNull final List<Mutation> batch) throws IOException {
+        final boolean full;
+        lock.readLock().lock();
+        try {
+            // Serializes appends and keeps the memtable applied in the log order
+            synchronized (log) {
+                log.append(batch);
+                for (final Mutation mutation : batch) {
+                    final ByteBuffer value = mutation.getValue();
+                    if (value == null) {
+                        memTable.remove(mutation.getKey());
+                    } else {
+                        memTable.upsert(mutation.getKey(), value);
+                    }
+                }
+            }
+            full = memTable.sizeInBytes() >= flushThreshold;
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (full) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (memTable.sizeInBytes() >= flushThreshold) {
+                rollMemTable();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Flushes the memtable (if not empty) and starts a new log for its successor.
+     */
+    private void rollMemTable() throws IOException {
+        if (memTable.sizeInBytes() == 0) {
+            return;
+        }
+        flushMemTable();
+        rollLog();
+    }
+
+    /**
+     * Persists the memtable (if not empty) as a new table and replaces it with an empty one.
+     */
+    private void flushMemTable() throws IOException {
+        if (memTable.sizeInBytes() == 0) {
+            return;
+        }
+        final long generation = memTable.generation();
+        ssTables.put(generation, writeTable(generation, memTable.iterator(EMPTY)));
+        memTable = newMemTable(nextGeneration());
+    }
+
+    @NotNull
+    private Table writeTable(
+            final long generation,
+            @NotNull final Iterator<Cell> cells) throws IOException {
+        final File temp = fileOf(generation, TEMP_SUFFIX);
+        final File file = fileOf(generation, TABLE_SUFFIX);
+        SSTable.write(temp, cells);
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        return new SSTable(file, generation);
+    }
+
+    @Override
+    public void compact() throws IOException {
+        lock.writeLock().lock();
+        try {
+            rollMemTable();
+            if (ssTables.size() <= 1) {
+                return;
+            }
+            final long generation = nextGeneration();
+            final Iterator<Cell> cells = Iterators.filter(cellIterator(EMPTY), cell -> !cell.getValue().isRemoved());
+            final Table compacted = writeTable(generation, cells);
+            for (final long old : ssTables.keySet()) {
+                Files.delete(fileOf(old, TABLE_SUFFIX).toPath());
+            }
+            ssTables.clear();
+            ssTables.put(generation, compacted);
+            memTable = newMemTable(nextGeneration());
+            rollLog();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void rollLog() throws IOException {
+        final WriteAheadLog old = log;
+        log = new WriteAheadLog(fileOf(memTable.generation(), LOG_SUFFIX), SYNC_LOG);
+        old.close();
+        Files.delete(old.getFile().toPath());
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            flushMemTable();
+            log.close();
+            Files.delete(log.getFile().toPath());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package ru.mail.polis.dao.impl.lsm;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.google.common.collect.Iterators;
+
+/**
+ * In-memory {@link MutableTable} backed by a concurrent skip list.
+ */
+final class MemTable implements MutableTable {
+    private static final int ENTRY_OVERHEAD = Integer.BYTES * 2;
+
+    private final NavigableMap<ByteBuffer, Value> map = new ConcurrentSkipListMap<>();
+    private final AtomicLong size = new AtomicLong();
+    private final long generation;
+
+    MemTable(final long generation) {
+        this.generation = generation;
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Cell> iterator(@NotNull final ByteBuffer from) {
+        return Iterators.transform(
+                map.tailMap(from).entrySet().iterator(),
+                e -> new Cell(e.getKey(), e.getValue(), generation));
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Cell> descendingIterator(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) {
+        final NavigableMap<ByteBuffer, Value> range = to == null
+                ? map.tailMap(from, true)
+                : map.subMap(from, true, to, false);
+        return Iterators.transform(
+                range.descendingMap().entrySet().iterator(),
+                e -> new Cell(e.getKey(), e.getValue(), generation));
+    }
+
+    @Override
+    public void upsert(@NotNull final ByteBuffer key, @NotNull final ByteBuffer value) {
+        put(copyOf(key), Value.of(copyOf(value)));
+    }
+
+    @Override
+    public void remove(@NotNull final ByteBuffer key) {
+        put(copyOf(key), Value.tombstone());
+    }
+
+    private void put(@NotNull final ByteBuffer key, @NotNull final Value value) {
+        final Value previous = map.put(key, value);
+        if (previous == null) {
+            size.addAndGet(key.remaining() + value.size() + ENTRY_OVERHEAD);
+        } else {
+            size.addAndGet(value.size() - previous.size());
+        }
+    }
+
+    @NotNull
+    private static ByteBuffer copyOf(@NotNull final ByteBuffer src) {
+        final ByteBuffer copy = ByteBuffer.allocate(src.remaining());
+        copy.put(src.duplicate());
+        copy.flip();
+        return copy;
+    }
+
+    @Override
+    public long sizeInBytes() {
+        return size.get();
+    }
+
+    @Override
+    public long generation() {
+        return generation;
+    }
+}
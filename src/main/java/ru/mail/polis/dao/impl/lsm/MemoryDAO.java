@@ -0,0 +1,135 @@
+package ru.mail.polis.dao.impl.lsm;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import ru.mail.polis.Record;
+import ru.mail.polis.dao.CloseableIterator;
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.Iters;
+
+/**
+ * Non-persistent storage keeping everything in an {@link OffHeapMemTable}.
+ *
+ * <p>The arena of the table only grows, so once the overwritten values and the tombstones take
+ * half of it the live cells are copied to a fresh table. The old one is released when the iterators
+ * still reading it are gone.
+ *
+ * <p>Batches are applied one mutation at a time, so concurrent readers may observe a prefix of a batch.
+ */
+public final class MemoryDAO implements DAO {
+    private static final long ROTATION_THRESHOLD = Long.getLong("dao.memory.rotation.bytes", 16L * 1024 * 1024);
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final long rotationThreshold;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Replaced under the write lock
+    private volatile OffHeapMemTable table = new OffHeapMemTable(0);
+
+    public MemoryDAO() {
+        this(ROTATION_THRESHOLD);
+    }
+
+    /**
+     * Creates the storage.
+     *
+     * @param rotationThreshold table size in bytes to consider copying the live cells at
+     */
+    public MemoryDAO(final long rotationThreshold) {
+        this.rotationThreshold = rotationThreshold;
+    }
+
+    @NotNull
+    @Override
+    public CloseableIterator<Record> iterator(@NotNull final ByteBuffer from) {
+        return LsmDAO.aliveRecords(table.iterator(from));
+    }
+
+    @NotNull
+    @Override
+    public CloseableIterator<Record> descendingRange(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) {
+        if (to != null && from.compareTo(to) >= 0) {
+            return Iters.empty();
+        }
+        return LsmDAO.aliveRecords(table.descendingIterator(from, to));
+    }
+
+    @Override
+    public void upsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) {
+        lock.readLock().lock();
+        try {
+            table.upsert(key, value);
+        } finally {
+            lock.readLock().unlock();
+        }
+        rotateIfWasted();
+    }
+
+    @Override
+    public void remove(@NotNull final ByteBuffer key) {
+        lock.readLock().lock();
+        try {
+            table.remove(key);
+        } finally {
+            lock.readLock().unlock();
+        }
+        rotateIfWasted();
+    }
+
+    private static boolean isWasted(@NotNull final OffHeapMemTable table, final long threshold) {
+        final long size = table.sizeInBytes();
+        return size >= threshold && table.reclaimableBytes() * 2 >= size;
+    }
+
+    private void rotateIfWasted() {
+        if (!isWasted(table, rotationThreshold)) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            final OffHeapMemTable old = table;
+            if (!isWasted(old, rotationThreshold)) {
+                return;
+            }
+            // Nothing lies below the table, so the tombstones are dropped too
+            final OffHeapMemTable fresh = new OffHeapMemTable(0);
+            final Iterator<Cell> cells = old.iterator(EMPTY);
+            while (cells.hasNext()) {
+                final Cell cell = cells.next();
+                if (!cell.getValue().isRemoved()) {
+                    fresh.upsert(cell.getKey(), cell.getValue().getData());
+                }
+            }
+            table = fresh;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @NotNull
+    @Override
+    public Map<String, Number> stats() {
+        final OffHeapMemTable current = table;
+        final Map<String, Number> stats = new LinkedHashMap<>();
+        stats.put("memtable.bytes", current.sizeInBytes());
+        stats.put("memtable.reclaimable.bytes", current.reclaimableBytes());
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        // Off-heap memory is released together with the table
+    }
+}
@@ -0,0 +1,15 @@
+package ru.mail.polis.dao.impl.lsm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * {@link Table} accepting writes, the memtable of the current generation.
+ */
+interface MutableTable extends Table {
+    void upsert(@NotNull ByteBuffer key, @NotNull ByteBuffer value) throws IOException;
+
+    void remove(@NotNull ByteBuffer key) throws IOException;
+}
@@ -0,0 +1,366 @@
+package ru.mail.polis.dao.impl.lsm;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * {@link MutableTable} implemented as an insert-only lock-free skip list living in an off-heap {@link Arena}.
+ *
+ * <p>Node layout: {@code value address, height, key length, next addresses[height], key}.
+ * Value layout: {@code length, data}. Removal links a node with the {@link #TOMBSTONE} value address,
+ * an update swaps the value address of the existing node. Links and value addresses are published
+ * with release/acquire semantics, so a reader never observes a partially written node or value.
+ *
+ * <p>The arena never reuses a block, so the size of the table counts the overwritten values too,
+ * {@link #reclaimableBytes()} tells how much of it a copy of the live cells would drop.
+ */
+final class OffHeapMemTable implements MutableTable {
+    private static final int CHUNK_SIZE = Integer.getInteger("dao.lsm.arena.chunk", 4 * 1024 * 1024);
+    private static final int MAX_HEIGHT = 16;
+    private static final long TOMBSTONE = -1L;
+
+    private static final int VALUE = 0;
+    private static final int HEIGHT = VALUE + Long.BYTES;
+    private static final int KEY_LENGTH = HEIGHT + Integer.BYTES;
+    private static final int NEXT = KEY_LENGTH + Integer.BYTES;
+
+    private static final long SIGN_BITS = 0x8080808080808080L;
+
+    private static final VarHandle ADDRESS =
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private final Arena arena = new Arena(CHUNK_SIZE);
+    private final AtomicLong size = new AtomicLong();
+    private final AtomicLong reclaimable = new AtomicLong();
+    private final long head;
+    private final long generation;
+
+    OffHeapMemTable(final long generation) {
+        this.generation = generation;
+        this.head = newNode(ByteBuffer.allocate(0), MAX_HEIGHT, TOMBSTONE);
+    }
+
+    private long newNode(
+            @NotNull final ByteBuffer key,
+            final int height,
+            final long value) {
+        final int keyOffset = NEXT + height * Long.BYTES;
+        final long node = arena.allocate(keyOffset + key.remaining());
+        final ByteBuffer chunk = arena.chunk(node);
+        final int offset = Arena.offset(node);
+        chunk.putLong(offset + VALUE, value);
+        chunk.putInt(offset + HEIGHT, height);
+        chunk.putInt(offset + KEY_LENGTH, key.remaining());
+        chunk.duplicate().position(offset + keyOffset).put(key.duplicate());
+        return node;
+    }
+
+    private long newValue(@NotNull final ByteBuffer value) {
+        final long address = arena.allocate(Integer.BYTES + value.remaining());
+        final ByteBuffer chunk = arena.chunk(address);
+        final int offset = Arena.offset(address);
+        chunk.putInt(offset, value.remaining());
+        chunk.duplicate().position(offset + Integer.BYTES).put(value.duplicate());
+        return address;
+    }
+
+    private long next(final long node, final int level) {
+        return (long) ADDRESS.getAcquire(arena.chunk(node), Arena.offset(node) + NEXT + level * Long.BYTES);
+    }
+
+    private void setNext(final long node, final int level, final long next) {
+        ADDRESS.setRelease(arena.chunk(node), Arena.offset(node) + NEXT + level * Long.BYTES, next);
+    }
+
+    private boolean casNext(final long node, final int level, final long expected, final long next) {
+        return ADDRESS.compareAndSet(
+                arena.chunk(node), Arena.offset(node) + NEXT + level * Long.BYTES, expected, next);
+    }
+
+    private long valueOf(final long node) {
+        return (long) ADDRESS.getAcquire(arena.chunk(node), Arena.offset(node) + VALUE);
+    }
+
+    private int heightOf(final long node) {
+        return arena.chunk(node).getInt(Arena.offset(node) + HEIGHT);
+    }
+
+    /**
+     * Compares the key of the node with the given one byte by byte, consistently with
+     * {@link ByteBuffer#compareTo(ByteBuffer)}, reading eight bytes at a time.
+     */
+    private int compare(final long node, @NotNull final ByteBuffer key) {
+        final ByteBuffer chunk = arena.chunk(node);
+        final int offset = Arena.offset(node);
+        final int nodeLength = chunk.getInt(offset + KEY_LENGTH);
+        final int nodeKey = offset + NEXT + chunk.getInt(offset + HEIGHT) * Long.BYTES;
+        final int keyStart = key.position();
+        final int length = Math.min(nodeLength, key.remaining());
+        int i = 0;
+        for (; i + Long.BYTES <= length; i += Long.BYTES) {
+            final long left = chunk.getLong(nodeKey + i);
+            final long right = key.getLong(keyStart + i);
+            if (left != right) {
+                // Flipping the sign bits turns signed byte order into unsigned long order
+                return Long.compareUnsigned(left ^ SIGN_BITS, right ^ SIGN_BITS);
+            }
+        }
+        for (; i < length; i++) {
+            final int cmp = Byte.compare(chunk.get(nodeKey + i), key.get(keyStart + i));
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return nodeLength - key.remaining();
+    }
+
+    /**
+     * Finds predecessors and successors of the key on every level.
+     *
+     * @return node with the key or {@link Arena#NULL} if absent
+     */
+    private long find(
+            @NotNull final ByteBuffer key,
+            @NotNull final long[] preds,
+            @NotNull final long[] succs) {
+        long node = head;
+        for (int level = MAX_HEIGHT - 1; level >= 0; level--) {
+            long next = next(node, level);
+            while (next != Arena.NULL && compare(next, key) < 0) {
+                node = next;
+                next = next(node, level);
+            }
+            preds[level] = node;
+            succs[level] = next;
+        }
+        final long candidate = succs[0];
+        return candidate != Arena.NULL && compare(candidate, key) == 0 ? candidate : Arena.NULL;
+    }
+
+    /**
+     * Finds the first node with the key not less than the given one.
+     */
+    private long ceiling(@NotNull final ByteBuffer key) {
+        long node = head;
+        long next = Arena.NULL;
+        for (int level = MAX_HEIGHT - 1; level >= 0; level--) {
+            next = next(node, level);
+            while (next != Arena.NULL && compare(next, key) < 0) {
+                node = next;
+                next = next(node, level);
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Finds the last node with the key less than the given one, the last node at all if none given.
+     * Nodes link forward only, so stepping backwards searches from the head every time.
+     *
+     * @return the node or {@link Arena#NULL} if there is none
+     */
+    private long lower(@Nullable final ByteBuffer key) {
+        long node = head;
+        for (int level = MAX_HEIGHT - 1; level >= 0; level--) {
+            long next = next(node, level);
+            while (next != Arena.NULL && (key == null || compare(next, key) < 0)) {
+                node = next;
+                next = next(node, level);
+            }
+        }
+        return node == head ? Arena.NULL : node;
+    }
+
+    private static int randomHeight() {
+        final int bits = ThreadLocalRandom.current().nextInt() | (1 << (MAX_HEIGHT - 1));
+        return Integer.numberOfTrailingZeros(bits) + 1;
+    }
+
+    private void put(
+            @NotNull final ByteBuffer key,
+            final long value,
+            final int valueSize) {
+        final ByteBuffer heapKey = onHeap(key);
+        final long[] preds = new long[MAX_HEIGHT];
+        final long[] succs = new long[MAX_HEIGHT];
+        long node = Arena.NULL;
+        int height = 0;
+        while (true) {
+            final long existing = find(heapKey, preds, succs);
+            if (existing != Arena.NULL) {
+                final long previous = (long) ADDRESS.getAndSetRelease(
+                        arena.chunk(existing), Arena.offset(existing) + VALUE, value);
+                // Lost the race for the key if a node is allocated, it is never linked
+                final long lost = node == Arena.NULL ? 0 : nodeSize(height, heapKey.remaining());
+                long dropped = sizeOf(previous) + lost;
+                if (previous != TOMBSTONE && value == TOMBSTONE) {
+                    dropped += nodeSize(heightOf(existing), heapKey.remaining());
+                } else if (previous == TOMBSTONE && value != TOMBSTONE) {
+                    dropped -= nodeSize(heightOf(existing), heapKey.remaining());
+                }
+                size.addAndGet(valueSize + lost);
+                reclaimable.addAndGet(dropped);
+                return;
+            }
+            if (node == Arena.NULL) {
+                height = randomHeight();
+                node = newNode(heapKey, height, value);
+            }
+            for (int level = 0; level < height; level++) {
+                setNext(node, level, succs[level]);
+            }
+            if (casNext(preds[0], 0, succs[0], node)) {
+                break;
+            }
+        }
+        final long nodeSize = nodeSize(height, heapKey.remaining());
+        size.addAndGet(nodeSize + valueSize);
+        if (value == TOMBSTONE) {
+            reclaimable.addAndGet(nodeSize);
+        }
+
+        for (int level = 1; level < height; level++) {
+            while (!casNext(preds[level], level, succs[level], node)) {
+                find(heapKey, preds, succs);
+                setNext(node, level, succs[level]);
+            }
+        }
+    }
+
+    private static long nodeSize(
+            final int height,
+            final int keyLength) {
+        return NEXT + (long) height * Long.BYTES + keyLength;
+    }
+
+    private long sizeOf(final long value) {
+        return value == TOMBSTONE ? 0 : Integer.BYTES + arena.chunk(value).getInt(Arena.offset(value));
+    }
+
+    /**
+     * Provides a big-endian heap view of the buffer comparisons and copies rely on.
+     */
+    @NotNull
+    private static ByteBuffer onHeap(@NotNull final ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            return buffer.duplicate();
+        }
+        final ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+        copy.put(buffer.duplicate());
+        copy.flip();
+        return copy;
+    }
+
+    @Override
+    public void upsert(@NotNull final ByteBuffer key, @NotNull final ByteBuffer value) {
+        put(key, newValue(value), Integer.BYTES + value.remaining());
+    }
+
+    @Override
+    public void remove(@NotNull final ByteBuffer key) {
+        put(key, TOMBSTONE, 0);
+    }
+
+    @NotNull
+    private Cell cellOf(final long node) {
+        final ByteBuffer chunk = arena.chunk(node);
+        final int offset = Arena.offset(node);
+        final int keyOffset = offset + NEXT + heightOf(node) * Long.BYTES;
+        final ByteBuffer key = slice(chunk, keyOffset, chunk.getInt(offset + KEY_LENGTH));
+        final long valueAddress = valueOf(node);
+        if (valueAddress == TOMBSTONE) {
+            return new Cell(key, Value.tombstone(), generation);
+        }
+        final ByteBuffer valueChunk = arena.chunk(valueAddress);
+        final int valueOffset = Arena.offset(valueAddress);
+        final ByteBuffer value = slice(valueChunk, valueOffset + Integer.BYTES, valueChunk.getInt(valueOffset));
+        return new Cell(key, Value.of(value), generation);
+    }
+
+    @NotNull
+    private static ByteBuffer slice(
+            @NotNull final ByteBuffer chunk,
+            final int offset,
+            final int length) {
+        return chunk.asReadOnlyBuffer().position(offset).limit(offset + length).slice();
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Cell> iterator(@NotNull final ByteBuffer from) {
+        return new Iterator<>() {
+            private long next = ceiling(onHeap(from));
+
+            @Override
+            public boolean hasNext() {
+                return next != Arena.NULL;
+            }
+
+            @Override
+            public Cell next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException("No more cells");
+                }
+                final Cell cell = cellOf(next);
+                next = OffHeapMemTable.this.next(next, 0);
+                return cell;
+            }
+        };
+    }
+
+    /**
+     * Every step costs a search from the head, which is still cheaper than copying the range.
+     */
+    @NotNull
+    @Override
+    public Iterator<Cell> descendingIterator(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) {
+        final ByteBuffer lowest = onHeap(from);
+        return new Iterator<>() {
+            private long next = lower(to == null ? null : onHeap(to));
+
+            @Override
+            public boolean hasNext() {
+                return next != Arena.NULL && compare(next, lowest) >= 0;
+            }
+
+            @Override
+            public Cell next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException("No more cells");
+                }
+                final Cell cell = cellOf(next);
+                next = lower(cell.getKey());
+                return cell;
+            }
+        };
+    }
+
+    @Override
+    public long sizeInBytes() {
+        return size.get();
+    }
+
+    /**
+     * Bytes taken by the overwritten values and the removed cells, the part of {@link #sizeInBytes()}
+     * not needed if the tombstones shadow nothing.
+     */
+    long reclaimableBytes() {
+        return reclaimable.get();
+    }
+
+    @Override
+    public long generation() {
+        return generation;
+    }
+}
@@ -0,0 +1,175 @@
+package ru.mail.polis.dao.impl.lsm;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import ru.mail.polis.dao.impl.SortedFileWriter;
+
+/**
+ * Immutable sorted {@link Table} persisted in a memory-mapped file.
+ *
+ * <p>File layout: cells ({@code keyLength, key, valueLength, value}, where a tombstone has
+ * {@code valueLength == -1}), then an {@code int} offset of every cell and the cell count.
+ */
+final class SSTable implements Table {
+    private static final int TOMBSTONE = -1;
+
+    private final ByteBuffer cells;
+    private final ByteBuffer offsets;
+    private final int rows;
+    private final long size;
+    private final long generation;
+
+    SSTable(@NotNull final File file, final long generation) throws IOException {
+        this.generation = generation;
+        final ByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Table is too large: " + file);
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        this.size = mapped.limit();
+        this.rows = mapped.getInt(mapped.limit() - Integer.BYTES);
+        final int offsetsStart = mapped.limit() - Integer.BYTES * (rows + 1);
+        if (rows < 0 || offsetsStart < 0) {
+            throw new IOException("Corrupted table: " + file);
+        }
+        this.offsets = mapped.duplicate().position(offsetsStart).limit(mapped.limit() - Integer.BYTES).slice();
+        this.cells = mapped.duplicate().limit(offsetsStart).slice();
+    }
+
+    /**
+     * Writes cells to the given file in the table format.
+     */
+    static void write(
+            @NotNull final File file,
+            @NotNull final Iterator<Cell> cells) throws IOException {
+        try (SortedFileWriter writer = new SortedFileWriter(file)) {
+            while (cells.hasNext()) {
+                writer.startEntry(true);
+                final Cell cell = cells.next();
+                writer.writeBuffer(cell.getKey());
+                final Value value = cell.getValue();
+                if (value.isRemoved()) {
+                    writer.writeInt(TOMBSTONE);
+                } else {
+                    writer.writeBuffer(value.getData());
+                }
+            }
+            writer.finish();
+        }
+    }
+
+    private int offsetAt(final int row) {
+        return offsets.getInt(row * Integer.BYTES);
+    }
+
+    @NotNull
+    private ByteBuffer keyAt(final int row) {
+        final int offset = offsetAt(row);
+        final int length = cells.getInt(offset);
+        return slice(offset + Integer.BYTES, length);
+    }
+
+    @NotNull
+    private Cell cellAt(final int row) {
+        final int keyOffset = offsetAt(row);
+        final int keyLength = cells.getInt(keyOffset);
+        final ByteBuffer key = slice(keyOffset + Integer.BYTES, keyLength);
+        final int valueOffset = keyOffset + Integer.BYTES + keyLength;
+        final int valueLength = cells.getInt(valueOffset);
+        final Value value = valueLength == TOMBSTONE
+                ? Value.tombstone()
+                : Value.of(slice(valueOffset + Integer.BYTES, valueLength));
+        return new Cell(key, value, generation);
+    }
+
+    @NotNull
+    private ByteBuffer slice(final int offset, final int length) {
+        return cells.duplicate().position(offset).limit(offset + length).slice();
+    }
+
+    /**
+     * Finds the first row with the key not less than the given one.
+     */
+    private int position(@NotNull final ByteBuffer from) {
+        int left = 0;
+        int right = rows - 1;
+        while (left <= right) {
+            final int mid = (left + right) >>> 1;
+            final int cmp = keyAt(mid).compareTo(from);
+            if (cmp < 0) {
+                left = mid + 1;
+            } else if (cmp > 0) {
+                right = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return left;
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Cell> iterator(@NotNull final ByteBuffer from) {
+        return new Iterator<>() {
+            private int next = position(from);
+
+            @Override
+            public boolean hasNext() {
+                return next < rows;
+            }
+
+            @Override
+            public Cell next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException("No more cells");
+                }
+                return cellAt(next++);
+            }
+        };
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Cell> descendingIterator(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) {
+        final int first = position(from);
+        return new Iterator<>() {
+            private int next = (to == null ? rows : position(to)) - 1;
+
+            @Override
+            public boolean hasNext() {
+                return next >= first;
+            }
+
+            @Override
+            public Cell next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException("No more cells");
+                }
+                return cellAt(next--);
+            }
+        };
+    }
+
+    @Override
+    public long sizeInBytes() {
+        return size;
+    }
+
+    @Override
+    public long generation() {
+        return generation;
+    }
+}
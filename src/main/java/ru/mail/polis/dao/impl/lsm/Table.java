@@ -0,0 +1,35 @@
+package ru.mail.polis.dao.impl.lsm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Sorted read-only collection of {@link Cell}s of a single generation.
+ */
+interface Table {
+    /**
+     * Provides cells (including tombstones) starting at "from" key (inclusive) in ascending key order.
+     */
+    @NotNull
+    Iterator<Cell> iterator(@NotNull ByteBuffer from) throws IOException;
+
+    /**
+     * Provides cells (including tombstones) starting at "from" key (inclusive) until "to" key (exclusive)
+     * in descending key order, the last cell goes first if "to" is {@code null}.
+     */
+    @NotNull
+    Iterator<Cell> descendingIterator(
+            @NotNull ByteBuffer from,
+            @Nullable ByteBuffer to) throws IOException;
+
+    /**
+     * Approximate amount of data held by the table.
+     */
+    long sizeInBytes();
+
+    long generation();
+}
@@ -0,0 +1,54 @@
+package ru.mail.polis.dao.impl.lsm;
+
+import java.nio.ByteBuffer;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Value stored in a {@link Table}: either data or a tombstone.
+ */
+final class Value {
+    private static final Value TOMBSTONE = new Value(null);
+
+    @Nullable
+    private final ByteBuffer data;
+
+    private Value(@Nullable final ByteBuffer data) {
+        this.data = data;
+    }
+
+    @NotNull
+    static Value of(@NotNull final ByteBuffer data) {
+        return new Value(data);
+    }
+
+    @NotNull
+    static Value tombstone() {
+        return TOMBSTONE;
+    }
+
+    boolean isRemoved() {
+        return data == null;
+    }
+
+    /**
+     * Returns the stored data.
+     *
+     * @throws IllegalStateException if the value is a tombstone
+     */
+    @NotNull
+    ByteBuffer getData() {
+        if (data == null) {
+            throw new IllegalStateException("Value is removed");
+        }
+        return data.asReadOnlyBuffer();
+    }
+
+    /**
+     * Number of data bytes, zero for a tombstone.
+     */
+    int size() {
+        return data == null ? 0 : data.remaining();
+    }
+}
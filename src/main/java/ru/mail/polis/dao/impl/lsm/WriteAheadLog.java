@@ -0,0 +1,129 @@
+package ru.mail.polis.dao.impl.lsm;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.jetbrains.annotations.NotNull;
+
+import ru.mail.polis.dao.Mutation;
+
+/**
+ * Append-only log of the mutations not yet flushed to an {@link SSTable}.
+ *
+ * <p>Every batch is a single record: {@code crc, length} and {@code length} bytes of mutations
+ * ({@code keyLength, valueLength, key, value}, where a removal has {@code valueLength == -1}),
+ * {@code crc} covering the mutations. Replay stops at the first torn or corrupted record,
+ * so a batch is either replayed as a whole or not at all.
+ */
+final class WriteAheadLog implements Closeable {
+    private static final int TOMBSTONE = -1;
+    private static final int HEADER = Integer.BYTES * 2;
+
+    @NotNull
+    private final File file;
+    @NotNull
+    private final FileChannel channel;
+    private final boolean sync;
+
+    WriteAheadLog(@NotNull final File file, final boolean sync) throws IOException {
+        this.file = file;
+        this.sync = sync;
+        this.channel = FileChannel.open(
+                file.toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Appends the batch as a single record, the callers serialize appends.
+     */
+    void append(@NotNull final List<Mutation> batch) throws IOException {
+        int length = 0;
+        for (final Mutation mutation : batch) {
+            final ByteBuffer value = mutation.getValue();
+            length += Integer.BYTES * 2 + mutation.getKey().remaining() + (value == null ? 0 : value.remaining());
+        }
+        final ByteBuffer record = ByteBuffer.allocate(HEADER + length);
+        record.position(HEADER);
+        for (final Mutation mutation : batch) {
+            final ByteBuffer key = mutation.getKey();
+            final ByteBuffer value = mutation.getValue();
+            record.putInt(key.remaining());
+            record.putInt(value == null ? TOMBSTONE : value.remaining());
+            record.put(key);
+            if (value != null) {
+                record.put(value);
+            }
+        }
+        record.putInt(0, checksum(record, HEADER, record.limit()));
+        record.putInt(Integer.BYTES, length);
+        record.flip();
+        while (record.hasRemaining()) {
+            channel.write(record);
+        }
+        if (sync) {
+            channel.force(false);
+        }
+    }
+
+    private static int checksum(
+            @NotNull final ByteBuffer buffer,
+            final int from,
+            final int to) {
+        final CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate().position(from).limit(to));
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Applies all the intact records of the log file to the table.
+     */
+    static void replay(
+            @NotNull final File file,
+            @NotNull final MutableTable table) throws IOException {
+        final ByteBuffer log;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            log = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        while (log.remaining() >= HEADER) {
+            final int crc = log.getInt();
+            final int length = log.getInt();
+            if (length < 0 || log.remaining() < length) {
+                return;
+            }
+            final int end = log.position() + length;
+            if (checksum(log, log.position(), end) != crc) {
+                return;
+            }
+            while (log.position() < end) {
+                final int keyLength = log.getInt();
+                final int valueLength = log.getInt();
+                final ByteBuffer key = log.duplicate().limit(log.position() + keyLength);
+                log.position(log.position() + keyLength);
+                if (valueLength == TOMBSTONE) {
+                    table.remove(key);
+                } else {
+                    table.upsert(key, log.duplicate().limit(log.position() + valueLength));
+                    log.position(log.position() + valueLength);
+                }
+            }
+        }
+    }
+
+    @NotNull
+    File getFile() {
+        return file;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
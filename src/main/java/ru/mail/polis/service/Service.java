@@ -25,21 +25,57 @@ package ru.mail.polis.service;
  * returns {@code 200} or {@code 503}</li>
  * <li>{@code GET /v0/entity?id=<ID>} --
  * get data by {@code ID}. Returns {@code 200} and data if found, {@code 404} if not found.</li>
- * <li>{@code GET /v0/entities?start=<ID>[&end=<ID>]} --
- * get range of data between {@code from} (inclusive) and optional {@code to} (exclusive).
- * Returns {@code 200} and HTTP chunked response with {@code <key>\n<value>} chunks.</li>
+ * <li>{@code GET /v0/entities?start=<ID>[&end=<ID>][&order=asc|desc][&limit=<N>][&continuation=<TOKEN>]
+ * [&projection=full|keys|length|prefix[&prefix=<N>]]} --
+ * get range of data between {@code from} (inclusive) and optional {@code to} (exclusive)
+ * in ascending (default) or descending key order.
+ * Returns {@code 200} and HTTP chunked response with a {@code <key>\n<value>} record per chunk.
+ * With {@code limit} at most {@code N} records are returned and, if there are more,
+ * the {@code X-Continuation} trailer carries the token to request the next page with.
+ * A projection replaces the records with {@code <key>}, {@code <key>\n<value length>}
+ * or {@code <key>\n<first N bytes of value>} ones.</li>
+ * <li>{@code DELETE /v0/entities?start=<ID>[&end=<ID>]} --
+ * remove all the data within the same range as {@code /v0/entities}. Returns {@code 202}.</li>
+ * <li>{@code GET /v0/entities/size?start=<ID>[&end=<ID>][&approximate=true]} --
+ * count records within the same range as {@code /v0/entities} and sum up their key and value sizes,
+ * exactly or estimated without reading the records.
+ * Returns {@code 200} and {@code count <N>\nbytes <N>\n}.</li>
+ * <li>{@code POST /v0/entities/get} with {@code \n} separated {@code ID}s as a body --
+ * get data by several {@code ID}s at once.
+ * Returns {@code 200} and HTTP chunked response with a {@code <key>\n<value>} record per chunk for the found ones.</li>
  * <li>{@code PUT /v0/entity?id=<ID>} --
  * upsert (create or replace) data by {@code ID}. Returns {@code 201}.</li>
  * <li>{@code DELETE /v0/entity?id=<ID>} --
  * remove data by {@code ID}. Returns {@code 202}.</li>
+ * <li>{@code GET /v0/stats} --
+ * storage metrics as {@code <name> <value>} lines. Returns {@code 200}.</li>
+ * <li>{@code POST /v0/admin/compact} --
+ * start compaction in background unless running already. Returns {@code 202} and its status.</li>
+ * <li>{@code GET /v0/admin/compact} --
+ * status of the last compaction as {@code state <STATE>\nprogress <0..1>\n}.
+ * Returns {@code 200} or {@code 404} if none was started.</li>
+ * <li>{@code DELETE /v0/admin/compact} --
+ * cancel the last compaction after the key range in progress. Returns {@code 202} and its status.</li>
  * </ul>
  *
  * <p>{@code ID} is a non empty char sequence.
  *
+ * <p>The chunk boundaries are the only framing of the text records, a key or a value may hold line breaks.
+ * With {@code Accept: application/x-records} the records are packed into large chunks as batches instead:
+ * every batch is a 4 byte big endian length followed by
+ * {@code <varint key length><key>[<varint value length><value>]} records,
+ * a zero length batch ends the stream. {@code Accept: application/x-records; checksum=crc32}
+ * adds the 4 byte big endian CRC32 of the records after every non empty batch.
+ * With {@code Accept-Encoding: gzip} or {@code deflate} the stream is compressed,
+ * every chunk is flushed so that it may be inflated as soon as it arrives, a text chunk still inflates
+ * to a single record.
+ *
  * <p>In all the cases the storage may return:
  * <ul>
  * <li>{@code 4xx} for malformed requests</li>
  * <li>{@code 5xx} for internal errors</li>
+ * <li>{@code 503} with {@code Retry-After} for writes while the storage stalls them</li>
+ * <li>{@code 503} with {@code Retry-After} for requests while the storage is overloaded</li>
  * </ul>
  *
  * @author Vadim Tsesko
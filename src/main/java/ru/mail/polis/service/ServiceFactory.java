@@ -17,8 +17,10 @@
 package ru.mail.polis.service;
 
 import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.Set;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
@@ -34,6 +36,7 @@ import ru.mail.polis.service.impl.AsyncHttpServer;
  */
 public final class ServiceFactory {
     private static final long MAX_HEAP = 256 * 1024 * 1024;
+    private static final int QUEUE_SIZE = Integer.getInteger("service.queue.size", 1024);
 
     private ServiceFactory() {
         // Not supposed to be instantiated
@@ -60,7 +63,10 @@ public final class ServiceFactory {
             throw new IllegalArgumentException("Port out of range");
         }
 
-        final Executor executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+        final int workers = Runtime.getRuntime().availableProcessors();
+        // Bounded, so that an overloaded storage rejects requests instead of piling them up in the heap
+        final Executor executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(QUEUE_SIZE),
                 new ThreadFactoryBuilder().setNameFormat("worker").build());
         return new AsyncHttpServer(port, dao, executor);
     }
@@ -1,30 +1,76 @@
 package ru.mail.polis.service.impl;
 
 import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import one.nio.http.*;
 import one.nio.net.Socket;
 import one.nio.server.AcceptorConfig;
 import org.jetbrains.annotations.NotNull;
-import ru.mail.polis.Record;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.mail.polis.dao.CompactionTask;
+import ru.mail.polis.dao.Cursor;
 import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.RangeSize;
+import ru.mail.polis.dao.ReadOnlyStorageException;
+import ru.mail.polis.dao.WriteStalledException;
 import ru.mail.polis.service.Service;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 import static one.nio.http.Response.METHOD_NOT_ALLOWED;
 import static one.nio.http.Response.INTERNAL_ERROR;
 import static one.nio.http.Response.BAD_REQUEST;
 
 public class AsyncHttpServer extends HttpServer implements Service {
+    private static final Logger log = LoggerFactory.getLogger(AsyncHttpServer.class);
+    private static final int MAX_POOLED_VALUE = 1024 * 1024;
+    /**
+     * Delay suggested to the clients whose writes were rejected because of a stall.
+     */
+    private static final int RETRY_AFTER_SECONDS = Integer.getInteger("service.retry.after", 1);
+
+    /**
+     * Per worker array the values are read into and written to the socket from.
+     */
+    private static final ThreadLocal<byte[]> VALUE_BUFFER = ThreadLocal.withInitial(() -> new byte[4096]);
+    /**
+     * Requests waited in the worker queue for longer are answered with {@code 503} without touching the storage.
+     */
+    private static final long QUEUE_DEADLINE_NANOS =
+            TimeUnit.MILLISECONDS.toNanos(Long.getLong("service.queue.deadline.ms", 1000));
+    private static final int SCAN_THREADS =
+            Integer.getInteger("service.scan.threads", Runtime.getRuntime().availableProcessors());
+
     @NotNull
     private final DAO dao;
     @NotNull
     private final Executor workerThreads;
+    /**
+     * Threads opening range cursors and encoding the records, so the selectors only do socket I/O.
+     * Started along with the server and shut down when it stops, so that it may be started again.
+     */
+    private volatile ThreadPoolExecutor scanThreads;
+    /**
+     * The last compaction started through the admin API.
+     */
+    @Nullable
+    private volatile CompactionTask compaction;
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder expired = new LongAdder();
 
     public AsyncHttpServer(final int port, @NotNull final DAO dao,
                            @NotNull final Executor workers) throws IOException {
@@ -33,6 +79,42 @@ public class AsyncHttpServer extends HttpServer implements Service {
         this.workerThreads = workers;
     }
 
+    @Override
+    public synchronized void start() {
+        scanThreads = new ThreadPoolExecutor(SCAN_THREADS, SCAN_THREADS, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder().setNameFormat("scan-%d").setDaemon(true).build());
+        super.start();
+    }
+
+    /**
+     * Stops listening and waits for the scans in progress, so the storage may be closed right after.
+     * The queued scans are dropped, closing the cursors of the streams they would have resumed.
+     */
+    @Override
+    public synchronized void stop() {
+        super.stop();
+        final ThreadPoolExecutor scans = scanThreads;
+        if (scans == null) {
+            return;
+        }
+        scans.shutdown();
+        final List<Runnable> dropped = new ArrayList<>();
+        scans.getQueue().drainTo(dropped);
+        for (final Runnable task : dropped) {
+            if (task instanceof StorageSession.Scan) {
+                ((StorageSession.Scan) task).drop();
+            }
+        }
+        try {
+            while (!scans.awaitTermination(1, TimeUnit.SECONDS)) {
+                log.info("Waiting for the scans in progress");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     private static HttpServerConfig from(final int port) {
         final AcceptorConfig ac = new AcceptorConfig();
         ac.port = port;
@@ -46,7 +128,7 @@ public class AsyncHttpServer extends HttpServer implements Service {
 
     @Override
     public HttpSession createSession(final Socket socket) {
-        return new StorageSession(socket, this);
+        return new StorageSession(socket, this, scanThreads);
     }
 
     @Path("/v0/status")
@@ -54,6 +136,73 @@ public class AsyncHttpServer extends HttpServer implements Service {
         return Response.ok("OK");
     }
 
+    /**
+     * Served on the selector, so that the queue metrics stay readable while the workers are saturated.
+     */
+    @Path("/v0/stats")
+    public void stats(@NotNull final Request request, @NotNull final HttpSession session) throws IOException {
+        if (request.getMethod() != Request.METHOD_GET) {
+            session.sendError(METHOD_NOT_ALLOWED, "Wrong method");
+            return;
+        }
+        session.sendResponse(statsWrapper());
+    }
+
+    @Path("/v0/admin/compact")
+    public void compact(@NotNull final Request request, @NotNull final HttpSession session) throws IOException {
+        switch (request.getMethod()) {
+            case Request.METHOD_POST:
+                executeAsync(session, () -> {
+                    final CompactionTask task = dao.compactInBackground();
+                    compaction = task;
+                    return compactionStatus(Response.ACCEPTED, task);
+                });
+                break;
+            case Request.METHOD_GET:
+                final CompactionTask task = compaction;
+                if (task == null) {
+                    session.sendError(Response.NOT_FOUND, "No compaction");
+                } else {
+                    session.sendResponse(compactionStatus(Response.OK, task));
+                }
+                break;
+            case Request.METHOD_DELETE:
+                final CompactionTask cancelled = compaction;
+                if (cancelled == null) {
+                    session.sendError(Response.NOT_FOUND, "No compaction");
+                } else {
+                    cancelled.cancel();
+                    session.sendResponse(compactionStatus(Response.ACCEPTED, cancelled));
+                }
+                break;
+            default:
+                session.sendError(METHOD_NOT_ALLOWED, "Wrong method");
+                break;
+        }
+    }
+
+    @NotNull
+    private static Response compactionStatus(
+            @NotNull final String resultCode,
+            @NotNull final CompactionTask task) {
+        return new Response(resultCode,
+                ("state " + task.state() + "\nprogress " + task.progress() + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    @NotNull
+    private Response statsWrapper() {
+        final StringBuilder body = new StringBuilder();
+        for (final Map.Entry<String, Number> stat : dao.stats().entrySet()) {
+            body.append(stat.getKey()).append(' ').append(stat.getValue()).append('\n');
+        }
+        if (workerThreads instanceof ThreadPoolExecutor) {
+            body.append("queue.depth ").append(((ThreadPoolExecutor) workerThreads).getQueue().size()).append('\n');
+        }
+        body.append("queue.rejected ").append(rejected.sum()).append('\n');
+        body.append("queue.expired ").append(expired.sum()).append('\n');
+        return Response.ok(body.toString());
+    }
+
     @Path("/v0/entity")
     public void entity(@Param("id") final String id,
                         @NotNull final Request request, HttpSession session) throws IOException {
@@ -65,12 +214,18 @@ public class AsyncHttpServer extends HttpServer implements Service {
         try {
             switch (request.getMethod()) {
                 case Request.METHOD_GET:
-                    executeAsync(session, () -> getMethodWrapper(key));
+                    executeAsync(session, () -> getMethodWrapper(key, (StorageSession) session));
                     return;
                 case Request.METHOD_PUT:
+                    if (shedWrite(session)) {
+                        return;
+                    }
                     executeAsync(session, () -> putMethodWrapper(key, request));
                     return;
                 case Request.METHOD_DELETE:
+                    if (shedWrite(session)) {
+                        return;
+                    }
                     executeAsync(session, () -> deleteMethodWrapper(key));
                     return;
                 default:
@@ -90,17 +245,92 @@ public class AsyncHttpServer extends HttpServer implements Service {
     }
 
     private void executeAsync(@NotNull final HttpSession session, @NotNull final Action action) throws IOException {
-        workerThreads.execute(() -> {
+        final long queued = System.nanoTime();
+        try {
+            workerThreads.execute(() -> execute(session, action, queued));
+        } catch (RejectedExecutionException e) {
+            // Workers are saturated
+            rejected.increment();
+            session.sendResponse(unavailable());
+        }
+    }
+
+    private void executeScan(@NotNull final HttpSession session, @NotNull final Action action) throws IOException {
+        final long queued = System.nanoTime();
+        try {
+            scanThreads.execute(() -> execute(session, action, queued));
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            session.sendResponse(unavailable());
+        }
+    }
+
+    private void execute(
+            @NotNull final HttpSession session,
+            @NotNull final Action action,
+            final long queued) {
+        if (System.nanoTime() - queued > QUEUE_DEADLINE_NANOS) {
+            // The client has likely given up already
+            expired.increment();
             try {
-                session.sendResponse(action.act());
+                session.sendResponse(unavailable());
             } catch (IOException ignored) {
 
             }
-        });
+            return;
+        }
+        try {
+            final Response response = action.act();
+            if (response != null) {
+                session.sendResponse(response);
+            }
+        } catch (ReadOnlyStorageException e) {
+            try {
+                session.sendError(METHOD_NOT_ALLOWED, e.getMessage());
+            } catch (IOException ignored) {
+
+            }
+        } catch (WriteStalledException e) {
+            try {
+                session.sendResponse(unavailable());
+            } catch (IOException ignored) {
+
+            }
+        } catch (IOException | RuntimeException e) {
+            try {
+                session.sendError(INTERNAL_ERROR, e.getMessage());
+            } catch (IOException ignored) {
+
+            }
+        }
+    }
+
+    /**
+     * Rejects the write on the selector thread while the storage stalls writes, so workers do not pile up behind.
+     *
+     * @return whether the write has been rejected
+     */
+    private boolean shedWrite(@NotNull final HttpSession session) throws IOException {
+        if (!dao.isWriteStalled()) {
+            return false;
+        }
+        session.sendResponse(unavailable());
+        return true;
+    }
+
+    @NotNull
+    private static Response unavailable() {
+        final Response response = new Response(Response.SERVICE_UNAVAILABLE, Response.EMPTY);
+        response.addHeader("Retry-After: " + RETRY_AFTER_SECONDS);
+        return response;
     }
 
     @FunctionalInterface
     interface Action {
+        /**
+         * Returns the response to send or {@code null} if the action has already sent it.
+         */
+        @Nullable
         Response act() throws IOException;
     }
 
@@ -114,44 +344,194 @@ public class AsyncHttpServer extends HttpServer implements Service {
             return;
         }
 
+        if (end != null && end.isEmpty()) {
+            end = null;
+        }
+
+        if (request.getMethod() == Request.METHOD_DELETE) {
+            if (shedWrite(session)) {
+                return;
+            }
+            final ByteBuffer from = ByteBuffer.wrap(start.getBytes(StandardCharsets.UTF_8));
+            final ByteBuffer to = end == null ? null : ByteBuffer.wrap(end.getBytes(StandardCharsets.UTF_8));
+            executeAsync(session, () -> {
+                dao.removeRange(from, to);
+                return new Response(Response.ACCEPTED, Response.EMPTY);
+            });
+            return;
+        }
+
         if (request.getMethod() != Request.METHOD_GET) {
             session.sendError(METHOD_NOT_ALLOWED, "Wrong method");
             return;
         }
 
-        if (end != null && end.isEmpty()) {
-            end = null;
+        final String order = request.getParameter("order=");
+        final boolean descending = "desc".equals(order);
+        if (order != null && !descending && !"asc".equals(order)) {
+            session.sendError(BAD_REQUEST, "Unknown order");
+            return;
+        }
+
+        final long limit = parseLimit(request.getParameter("limit="));
+        if (limit <= 0) {
+            session.sendError(BAD_REQUEST, "Wrong limit");
+            return;
+        }
+
+        final Projection projection =
+                Projection.parse(request.getParameter("projection="), request.getParameter("prefix="));
+        if (projection == null) {
+            session.sendError(BAD_REQUEST, "Wrong projection");
+            return;
+        }
+
+        ByteBuffer from = ByteBuffer.wrap(start.getBytes(StandardCharsets.UTF_8));
+        ByteBuffer to = end == null ? null : ByteBuffer.wrap(end.getBytes(StandardCharsets.UTF_8));
+        final String continuation = request.getParameter("continuation=");
+        if (continuation != null) {
+            final ContinuationToken token = ContinuationToken.parse(continuation);
+            if (token == null || token.isDescending() != descending) {
+                session.sendError(BAD_REQUEST, "Wrong continuation");
+                return;
+            }
+            if (descending) {
+                to = token.getKey();
+            } else {
+                from = token.getKey();
+            }
         }
 
+        final ByteBuffer lower = from;
+        final ByteBuffer upper = to;
+        // Opening a cursor takes a snapshot and may start the parallel scan, so keep it off the selector too
+        executeScan(session, () -> {
+            // One more record tells whether there is a next page
+            final long expected = limit == Long.MAX_VALUE ? limit : limit + 1;
+            final Cursor records = descending
+                    ? dao.descendingCursor(lower, upper, expected)
+                    : dao.cursor(lower, upper, expected);
+            ((StorageSession) session).stream(records, limit, descending, projection);
+            return null;
+        });
+    }
+
+    /**
+     * @return page size, {@link Long#MAX_VALUE} if not limited or non positive if malformed
+     */
+    private static long parseLimit(@Nullable final String limit) {
+        if (limit == null) {
+            return Long.MAX_VALUE;
+        }
         try {
-            final Iterator<Record> records =
-                    dao.range(ByteBuffer.wrap(start.getBytes(StandardCharsets.UTF_8)),
-                            end == null ? null : ByteBuffer.wrap(end.getBytes(StandardCharsets.UTF_8)));
-            ((StorageSession) session).stream(records);
-        } catch (IOException e) {
-            session.sendError(INTERNAL_ERROR, e.getMessage());
+            return Long.parseLong(limit);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    @Path("/v0/entities/size")
+    public void entitiesSize(@Param("start") final String start,
+                             @Param("end") final String end,
+                             @NotNull final Request request,
+                             @NotNull final HttpSession session) throws IOException {
+        if (start == null || start.isEmpty()) {
+            session.sendError(BAD_REQUEST, "No start");
+            return;
+        }
+
+        if (request.getMethod() != Request.METHOD_GET) {
+            session.sendError(METHOD_NOT_ALLOWED, "Wrong method");
+            return;
+        }
+
+        final ByteBuffer from = ByteBuffer.wrap(start.getBytes(StandardCharsets.UTF_8));
+        final ByteBuffer to = end == null || end.isEmpty()
+                ? null
+                : ByteBuffer.wrap(end.getBytes(StandardCharsets.UTF_8));
+        final boolean approximate = "true".equals(request.getParameter("approximate="));
+        if (approximate) {
+            executeAsync(session, () -> sizeResponse(dao.approximateSize(from, to)));
+        } else {
+            // Counting reads the whole range, so it queues with the scans rather than the point requests
+            executeScan(session, () -> sizeResponse(dao.size(from, to)));
         }
     }
 
+    @NotNull
+    private static Response sizeResponse(@NotNull final RangeSize size) {
+        return Response.ok("count " + size.getCount() + "\nbytes " + size.getBytes() + "\n");
+    }
+
+    @Path("/v0/entities/get")
+    public void entitiesGet(@NotNull final Request request, @NotNull final HttpSession session) throws IOException {
+        if (request.getMethod() != Request.METHOD_POST) {
+            session.sendError(METHOD_NOT_ALLOWED, "Wrong method");
+            return;
+        }
+
+        final List<ByteBuffer> keys = parseKeys(request.getBody());
+        if (keys.isEmpty()) {
+            session.sendError(BAD_REQUEST, "No keys");
+            return;
+        }
+
+        executeAsync(session, () -> {
+            ((StorageSession) session).stream(Cursor.of(dao.getAll(keys)));
+            return null;
+        });
+    }
+
+    /**
+     * Splits the body into non empty {@code \n} separated keys.
+     */
+    @NotNull
+    private static List<ByteBuffer> parseKeys(@Nullable final byte[] body) {
+        final List<ByteBuffer> keys = new ArrayList<>();
+        if (body == null) {
+            return keys;
+        }
+        int start = 0;
+        for (int i = 0; i <= body.length; i++) {
+            if (i == body.length || body[i] == '\n') {
+                if (i > start) {
+                    keys.add(ByteBuffer.wrap(body, start, i - start).slice());
+                }
+                start = i + 1;
+            }
+        }
+        return keys;
+    }
+
     @NotNull
     private Response badRequest() {
         return new Response(Response.BAD_REQUEST, Response.EMPTY);
     }
 
-    @NotNull
-    private Response getMethodWrapper(final ByteBuffer key) throws IOException {
-        Response response;
+    @Nullable
+    private Response getMethodWrapper(
+            @NotNull final ByteBuffer key,
+            @NotNull final StorageSession session) throws IOException {
+        byte[] buffer = VALUE_BUFFER.get();
+        int length;
         try {
-            final ByteBuffer value = dao.get(key).duplicate();
-            byte[] body = new byte[value.remaining()];
-            value.get(body);
-            response = new Response(Response.OK, body);
-            return response;
+            length = dao.get(key, buffer);
+            while (length > buffer.length) {
+                buffer = new byte[length];
+                length = dao.get(key, buffer);
+            }
+        } catch (NoSuchElementException e) {
+            return new Response(Response.NOT_FOUND, "Key not found".getBytes(Charsets.UTF_8));
         }
-        catch (NoSuchElementException e) {
-            response = new Response(Response.NOT_FOUND, "Key not found".getBytes(Charsets.UTF_8));
-            return response;
+
+        // The session keeps referencing the array until the socket takes the whole body
+        final boolean released = session.sendBody(buffer, length);
+        if (!released) {
+            VALUE_BUFFER.remove();
+        } else if (buffer.length <= MAX_POOLED_VALUE) {
+            VALUE_BUFFER.set(buffer);
         }
+        return null;
     }
 
     @NotNull
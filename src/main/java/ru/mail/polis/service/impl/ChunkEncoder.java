@@ -0,0 +1,315 @@
+package ru.mail.polis.service.impl;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Builds HTTP chunks in pooled arrays, a binary chunk packs many records into one batch of the format.
+ * Text records have no framing but the chunk boundaries, so every one of them takes a chunk of its own.
+ * The chunk size and the batch header are written with leading zeros, so the head of the array is reserved up front
+ * and the records are copied right where they are sent from.
+ * Compressed streams deflate every batch into a second pooled array, flushing the deflater at the end of the chunk
+ * so that the client may inflate the records as they arrive.
+ */
+final class ChunkEncoder {
+    /**
+     * Size of the pooled arrays, a record not fitting into an empty one gets an array of its own.
+     */
+    static final int CHUNK_SIZE = Integer.getInteger("service.chunk.size", 64 * 1024);
+    private static final BlockingQueue<byte[]> POOL = new ArrayBlockingQueue<>(64);
+    private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+    /**
+     * Chunk size of the compressed chunks is always written as 8 hex digits.
+     */
+    private static final int OUTPUT_START = 10;
+
+    private final CRC32 crc = new CRC32();
+    /**
+     * Checksum of the uncompressed gzip stream.
+     */
+    private final CRC32 streamCrc = new CRC32();
+    private StreamFormat format = StreamFormat.TEXT;
+    private Compression compression = Compression.IDENTITY;
+    private Deflater deflater;
+    private byte[] chunk;
+    /**
+     * Compressed chunk, the one sent if the stream is compressed.
+     */
+    private byte[] output;
+    /**
+     * Offset of the records, right after the chunk size line and the batch header.
+     */
+    private int start;
+    private int position;
+
+    /**
+     * Starts a stream of the format, discarding the records not flushed.
+     */
+    void start(
+            @NotNull final StreamFormat format,
+            @NotNull final Compression compression) {
+        end();
+        this.format = format;
+        this.compression = compression;
+        if (compression != Compression.IDENTITY) {
+            deflater = compression.deflater();
+            streamCrc.reset();
+        }
+        // The array may still be queued in the socket, it is only written after the socket takes it
+        if (chunk != null) {
+            start = hexDigits(chunk.length) + 2 + format.batchHeader();
+            position = start;
+        }
+    }
+
+    /**
+     * Whether no records have been put since the last flush.
+     */
+    boolean isEmpty() {
+        return chunk == null || position == start;
+    }
+
+    /**
+     * Whether a record of the given size fits into the current chunk, a text record only fits into an empty one.
+     */
+    boolean fits(final int length) {
+        if (!format.isBinary() && !isEmpty()) {
+            return false;
+        }
+        // Room for the batch trailer, the zero length batch ending a binary stream and the line break
+        return chunk != null && position + length + format.batchTrailer() + format.batchHeader() + 2 <= chunk.length;
+    }
+
+    /**
+     * Makes room for a record of the given size, must be called on an empty chunk if the record doesn't fit.
+     */
+    void reserve(final int length) {
+        if (fits(length)) {
+            return;
+        }
+        assert isEmpty();
+        recycle();
+        // At most 8 hex digits of the size and two line breaks
+        final int size = Math.max(CHUNK_SIZE, length + 2 * format.batchHeader() + format.batchTrailer() + 12);
+        final byte[] pooled = size == CHUNK_SIZE ? POOL.poll() : null;
+        chunk = pooled == null ? new byte[size] : pooled;
+        start = hexDigits(chunk.length) + 2 + format.batchHeader();
+        position = start;
+    }
+
+    /**
+     * Size of the encoded record, see {@link #put(ByteBuffer, Projection, ByteBuffer)}.
+     */
+    int length(
+            @NotNull final ByteBuffer key,
+            @NotNull final Projection projection,
+            @Nullable final ByteBuffer value) {
+        return format.length(key.remaining(), value == null ? -1 : projection.length(value));
+    }
+
+    /**
+     * Appends the key and the value part of the projection, if any.
+     */
+    void put(
+            @NotNull final ByteBuffer key,
+            @NotNull final Projection projection,
+            @Nullable final ByteBuffer value) {
+        if (format.isBinary()) {
+            putVarint(key.remaining());
+        }
+        position = Projection.copy(key, key.remaining(), chunk, position);
+        if (value == null) {
+            return;
+        }
+        if (format.isBinary()) {
+            putVarint(projection.length(value));
+        } else {
+            chunk[position++] = LF;
+        }
+        position = projection.write(value, chunk, position);
+    }
+
+    private void putVarint(final int value) {
+        int rest = value;
+        while ((rest & ~0x7F) != 0) {
+            chunk[position++] = (byte) (rest & 0x7F | 0x80);
+            rest >>>= 7;
+        }
+        chunk[position++] = (byte) rest;
+    }
+
+    private void putInt(
+            final int offset,
+            final int value) {
+        chunk[offset] = (byte) (value >>> 24);
+        chunk[offset + 1] = (byte) (value >>> 16);
+        chunk[offset + 2] = (byte) (value >>> 8);
+        chunk[offset + 3] = (byte) value;
+    }
+
+    private static void putIntLittleEndian(
+            @NotNull final byte[] dst,
+            final int offset,
+            final int value) {
+        dst[offset] = (byte) value;
+        dst[offset + 1] = (byte) (value >>> 8);
+        dst[offset + 2] = (byte) (value >>> 16);
+        dst[offset + 3] = (byte) (value >>> 24);
+    }
+
+    /**
+     * Completes the chunk, the encoder must not be touched until the socket has taken {@link #array()}.
+     * The last chunk ends a binary stream with a zero length batch and finishes a compressed one.
+     *
+     * @return length of the chunk at the head of {@link #array()}, {@code 0} if there is nothing to send
+     */
+    int flush(final boolean last) {
+        if (!last && isEmpty()) {
+            return 0;
+        }
+        if (chunk == null) {
+            reserve(0);
+        }
+        final int records = position - start;
+        final int from = start - format.batchHeader();
+        if (records > 0) {
+            if (format.batchHeader() > 0) {
+                putInt(from, records);
+            }
+            if (format.batchTrailer() > 0) {
+                crc.reset();
+                crc.update(chunk, start, records);
+                putInt(position, (int) crc.getValue());
+                position += format.batchTrailer();
+            }
+        } else {
+            position = from;
+        }
+        if (last && format.isBinary()) {
+            putInt(position, 0);
+            position += format.batchHeader();
+        }
+        final int end = position;
+        position = start;
+
+        if (compression != Compression.IDENTITY) {
+            return compress(from, end, last);
+        }
+        return end == from ? 0 : frame(chunk, from, end);
+    }
+
+    /**
+     * Deflates the batch into the output array, see {@link #frame(byte[], int, int)}.
+     */
+    private int compress(
+            final int from,
+            final int end,
+            final boolean last) {
+        if (output == null || output.length < chunk.length) {
+            recycleOutput();
+            final byte[] pooled = chunk.length == CHUNK_SIZE ? POOL.poll() : null;
+            output = pooled == null ? new byte[chunk.length] : pooled;
+        }
+        int offset = OUTPUT_START;
+        if (deflater.getTotalIn() == 0 && deflater.getBytesWritten() == 0) {
+            final byte[] header = compression.header();
+            System.arraycopy(header, 0, output, offset, header.length);
+            offset += header.length;
+        }
+        deflater.setInput(chunk, from, end - from);
+        streamCrc.update(chunk, from, end - from);
+        if (last) {
+            deflater.finish();
+        }
+        final int mode = last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH;
+        while (true) {
+            // Keeps room for the gzip trailer and the line break
+            final int room = output.length - offset - Compression.GZIP.trailer() - 2;
+            final int written = deflater.deflate(output, offset, room, mode);
+            offset += written;
+            if (last ? deflater.finished() : written < room) {
+                break;
+            }
+            output = Arrays.copyOf(output, output.length * 2);
+        }
+        if (last) {
+            if (compression.trailer() > 0) {
+                putIntLittleEndian(output, offset, (int) streamCrc.getValue());
+                putIntLittleEndian(output, offset + 4, (int) deflater.getBytesRead());
+                offset += compression.trailer();
+            }
+            end();
+        }
+        return frame(output, OUTPUT_START, offset);
+    }
+
+    /**
+     * Writes the size line of the chunk with leading zeros right before the payload and the line break after it.
+     *
+     * @return length of the chunk
+     */
+    private static int frame(
+            @NotNull final byte[] dst,
+            final int from,
+            final int end) {
+        final int sizeEnd = from - 2;
+        for (int i = sizeEnd - 1, rest = end - from; i >= 0; i--, rest >>>= 4) {
+            dst[i] = HEX[rest & 0xF];
+        }
+        dst[sizeEnd] = CR;
+        dst[sizeEnd + 1] = LF;
+        dst[end] = CR;
+        dst[end + 1] = LF;
+        return end + 2;
+    }
+
+    @NotNull
+    byte[] array() {
+        return compression == Compression.IDENTITY ? chunk : output;
+    }
+
+    /**
+     * Releases the deflater of the stream, if any.
+     */
+    void end() {
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+    }
+
+    /**
+     * Returns the arrays to the pool, the socket must have taken the last chunk.
+     */
+    void recycle() {
+        if (chunk != null) {
+            if (chunk.length == CHUNK_SIZE) {
+                POOL.offer(chunk);
+            }
+            chunk = null;
+        }
+        recycleOutput();
+    }
+
+    private void recycleOutput() {
+        if (output != null) {
+            if (output.length == CHUNK_SIZE) {
+                POOL.offer(output);
+            }
+            output = null;
+        }
+    }
+
+    static int hexDigits(final int value) {
+        return Math.max(1, (Integer.SIZE - Integer.numberOfLeadingZeros(value) + 3) / 4);
+    }
+}
@@ -0,0 +1,79 @@
+package ru.mail.polis.service.impl;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.zip.Deflater;
+
+/**
+ * Content coding of the streamed records negotiated with the {@code Accept-Encoding} header.
+ */
+enum Compression {
+    IDENTITY(null),
+    GZIP("gzip"),
+    DEFLATE("deflate");
+
+    private static final int LEVEL = Integer.getInteger("service.compression.level", Deflater.BEST_SPEED);
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    @Nullable
+    private final String coding;
+
+    Compression(@Nullable final String coding) {
+        this.coding = coding;
+    }
+
+    /**
+     * Prefers gzip to deflate, codings with {@code q=0} are not accepted.
+     */
+    @NotNull
+    static Compression negotiate(@Nullable final String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return IDENTITY;
+        }
+        boolean deflate = false;
+        for (final String entry : acceptEncoding.split(",")) {
+            final int parameters = entry.indexOf(';');
+            final String coding = (parameters < 0 ? entry : entry.substring(0, parameters)).trim();
+            if (parameters >= 0 && entry.substring(parameters + 1).trim().matches("q=0(\\.0*)?")) {
+                continue;
+            }
+            if ("gzip".equalsIgnoreCase(coding)) {
+                return GZIP;
+            }
+            deflate |= "deflate".equalsIgnoreCase(coding);
+        }
+        return deflate ? DEFLATE : IDENTITY;
+    }
+
+    /**
+     * Value of the {@code Content-Encoding} header, {@code null} if not compressed.
+     */
+    @Nullable
+    String coding() {
+        return coding;
+    }
+
+    /**
+     * Deflater producing the raw stream for gzip and the zlib one for deflate.
+     */
+    @NotNull
+    Deflater deflater() {
+        return new Deflater(LEVEL, this == GZIP);
+    }
+
+    /**
+     * Bytes preceding the compressed stream.
+     */
+    @NotNull
+    byte[] header() {
+        return this == GZIP ? GZIP_HEADER.clone() : new byte[0];
+    }
+
+    /**
+     * Size of the checksum and the input size following the compressed stream.
+     */
+    int trailer() {
+        return this == GZIP ? 8 : 0;
+    }
+}
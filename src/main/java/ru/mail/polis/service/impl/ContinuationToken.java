@@ -0,0 +1,70 @@
+package ru.mail.polis.service.impl;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+/**
+ * Opaque token resuming a range scan right after the last record of a page.
+ * Keeps the scan order and the key to resume from: the start key of an ascending scan
+ * or the end key of a descending one.
+ */
+final class ContinuationToken {
+    static final String TRAILER = "X-Continuation";
+
+    private static final byte ASCENDING = 'a';
+    private static final byte DESCENDING = 'd';
+
+    private final boolean descending;
+    @NotNull
+    private final ByteBuffer key;
+
+    private ContinuationToken(
+            final boolean descending,
+            @NotNull final ByteBuffer key) {
+        this.descending = descending;
+        this.key = key;
+    }
+
+    /**
+     * Encodes the token for the page ending with the key.
+     */
+    @NotNull
+    static String after(
+            final boolean descending,
+            @NotNull final byte[] lastKey) {
+        // The smallest key following the last one ascending or the last one itself as an exclusive bound
+        final byte[] token = new byte[1 + lastKey.length + (descending ? 0 : 1)];
+        token[0] = descending ? DESCENDING : ASCENDING;
+        System.arraycopy(lastKey, 0, token, 1, lastKey.length);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token);
+    }
+
+    /**
+     * @return decoded token or {@code null} if malformed
+     */
+    @Nullable
+    static ContinuationToken parse(@NotNull final String token) {
+        final byte[] decoded;
+        try {
+            decoded = Base64.getUrlDecoder().decode(token);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (decoded.length < 2 || (decoded[0] != ASCENDING && decoded[0] != DESCENDING)) {
+            return null;
+        }
+        return new ContinuationToken(decoded[0] == DESCENDING, ByteBuffer.wrap(decoded, 1, decoded.length - 1).slice());
+    }
+
+    boolean isDescending() {
+        return descending;
+    }
+
+    @NotNull
+    ByteBuffer getKey() {
+        return key.duplicate();
+    }
+}
@@ -0,0 +1,146 @@
+package ru.mail.polis.service.impl;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Part of the value streamed after the key of every record in a range.
+ */
+final class Projection {
+    static final Projection FULL = new Projection(Mode.FULL, 0);
+
+    private enum Mode {
+        /**
+         * {@code <key>\n<value>}.
+         */
+        FULL,
+        /**
+         * {@code <key>}, the value is not even read.
+         */
+        KEYS,
+        /**
+         * {@code <key>\n<decimal value length>}.
+         */
+        LENGTH,
+        /**
+         * {@code <key>\n<value head>}.
+         */
+        PREFIX
+    }
+
+    private final Mode mode;
+    private final int prefixLength;
+
+    private Projection(
+            @NotNull final Mode mode,
+            final int prefixLength) {
+        this.mode = mode;
+        this.prefixLength = prefixLength;
+    }
+
+    /**
+     * Parses {@code full}, {@code keys}, {@code length} or {@code prefix} along with the prefix length.
+     *
+     * @return projection or {@code null} if malformed
+     */
+    @Nullable
+    static Projection parse(
+            @Nullable final String projection,
+            @Nullable final String prefix) {
+        if (projection == null || "full".equals(projection)) {
+            return FULL;
+        }
+        switch (projection) {
+            case "keys":
+                return new Projection(Mode.KEYS, 0);
+            case "length":
+                return new Projection(Mode.LENGTH, 0);
+            case "prefix":
+                final int length = parsePrefix(prefix);
+                return length < 0 ? null : new Projection(Mode.PREFIX, length);
+            default:
+                return null;
+        }
+    }
+
+    private static int parsePrefix(@Nullable final String prefix) {
+        if (prefix == null) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(prefix);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Whether the value part and the separator precede it are sent.
+     */
+    boolean hasValue() {
+        return mode != Mode.KEYS;
+    }
+
+    /**
+     * Size of the value part in bytes.
+     */
+    int length(@NotNull final ByteBuffer value) {
+        switch (mode) {
+            case FULL:
+                return value.remaining();
+            case LENGTH:
+                return decimalDigits(value.remaining());
+            case PREFIX:
+                return Math.min(prefixLength, value.remaining());
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Writes the value part of {@link #length(ByteBuffer)} bytes.
+     *
+     * @return offset right after the written bytes
+     */
+    int write(
+            @NotNull final ByteBuffer value,
+            @NotNull final byte[] dst,
+            final int offset) {
+        final int length = length(value);
+        if (mode == Mode.LENGTH) {
+            for (int i = offset + length - 1, rest = value.remaining(); i >= offset; i--, rest /= 10) {
+                dst[i] = (byte) ('0' + rest % 10);
+            }
+            return offset + length;
+        }
+        return copy(value, length, dst, offset);
+    }
+
+    /**
+     * Copies the head of the buffer into the array without moving its position.
+     *
+     * @return offset right after the copied bytes
+     */
+    static int copy(
+            @NotNull final ByteBuffer src,
+            final int length,
+            @NotNull final byte[] dst,
+            final int offset) {
+        if (src.hasArray()) {
+            System.arraycopy(src.array(), src.arrayOffset() + src.position(), dst, offset, length);
+        } else {
+            src.duplicate().get(dst, offset, length);
+        }
+        return offset + length;
+    }
+
+    private static int decimalDigits(final int value) {
+        int digits = 1;
+        for (int rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        return digits;
+    }
+}
@@ -2,95 +2,375 @@ package ru.mail.polis.service.impl;
 
 import one.nio.http.HttpServer;
 import one.nio.http.HttpSession;
+import one.nio.http.Request;
 import one.nio.http.Response;
 import one.nio.net.Socket;
 import org.jetbrains.annotations.NotNull;
-import ru.mail.polis.Record;
+import org.jetbrains.annotations.Nullable;
+import ru.mail.polis.dao.Cursor;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
+/**
+ * Session streaming range scans: the records are read on the scan executor and encoded into chunks,
+ * which are handed to the socket, the scan pauses whenever the socket can't take more,
+ * so the selector thread only does socket I/O.
+ */
 final class StorageSession extends HttpSession {
-    private static final byte[] CRLF = "\r\n".getBytes(StandardCharsets.UTF_8);
-    private static final byte LF = '\n';
     private static final byte[] EMPTY_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.UTF_8);
 
-    private Iterator<Record> records;
+    private final Executor scanner;
+    /**
+     * Used by the scan task, recycled once the socket has sent the last chunk of the stream.
+     */
+    private final ChunkEncoder encoder = new ChunkEncoder();
+
+    private Cursor records;
+    /**
+     * Whether a scan task is queued or running, it owns the cursor meanwhile.
+     */
+    private boolean scanning;
+    /**
+     * Whether the session has been closed while scanning, so the scan task releases the cursor.
+     */
+    private boolean abandoned;
+
+    // Confined to the scan task
+    /**
+     * Whether the cursor stays at a record that didn't fit into the last chunk.
+     */
+    private boolean pending;
+    /**
+     * Records left to send in the current page.
+     */
+    private long remaining;
+    private boolean descending;
+    private boolean paged;
+    private byte[] lastKey;
+    private Projection projection = Projection.FULL;
 
     StorageSession(@NotNull final Socket socket,
-                   @NotNull final HttpServer server) {
+                   @NotNull final HttpServer server,
+                   @NotNull final Executor scanner) {
         super(socket, server);
+        this.scanner = scanner;
     }
 
-    void stream(@NotNull final Iterator<Record> records) throws IOException {
+    /**
+     * Streams the records as chunks, the cursor is closed once exhausted or when the session closes.
+     */
+    synchronized void stream(@NotNull final Cursor records) throws IOException {
+        stream(records, Long.MAX_VALUE, false, Projection.FULL);
+    }
+
+    /**
+     * Streams a page of at most limit projected records
+     * in the format and the compression negotiated with the request headers.
+     * If there are more, a continuation token resuming right after the page is sent as a trailer.
+     * The cursor is closed right away if the stream can't be started.
+     */
+    synchronized void stream(
+            @NotNull final Cursor records,
+            final long limit,
+            final boolean descending,
+            @NotNull final Projection projection) throws IOException {
+        final Request handling = this.handling;
+        if (handling == null) {
+            records.close();
+            throw new IOException("Out of order response");
+        }
+
         this.records = records;
+        try {
+            final StreamFormat format = StreamFormat.negotiate(handling.getHeader("Accept: "));
+            final Compression compression = Compression.negotiate(handling.getHeader("Accept-Encoding: "));
+            encoder.start(format, compression);
+            this.projection = projection;
+            this.remaining = limit;
+            this.descending = descending;
+            this.paged = limit != Long.MAX_VALUE;
+            this.lastKey = null;
+
+            final Response response = new Response(Response.OK);
+            response.addHeader("Transfer-Encoding: chunked");
+            if (format.contentType() != null) {
+                response.addHeader("Content-Type: " + format.contentType());
+            }
+            if (compression.coding() != null) {
+                response.addHeader("Content-Encoding: " + compression.coding());
+            }
+            response.addHeader("Vary: Accept, Accept-Encoding");
+            if (paged) {
+                response.addHeader("Trailer: " + ContinuationToken.TRAILER);
+            }
+            writeResponse(response, false);
+        } catch (IOException | RuntimeException e) {
+            closeRecords();
+            throw e;
+        }
+        if (queueHead == null) {
+            scan();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scanning) {
+            abandoned = true;
+        } else {
+            closeRecords();
+        }
+        super.close();
+    }
+
+    private void closeRecords() {
+        if (records != null) {
+            records.close();
+            records = null;
+        }
+    }
+
+    /**
+     * Responds {@code 200} with the head of the array as a body, writing it to the socket without copying.
+     *
+     * @return whether the socket has taken the whole body, so the array may be reused
+     */
+    synchronized boolean sendBody(
+            @NotNull final byte[] body,
+            final int length) throws IOException {
+        final Request handling = this.handling;
+        if (handling == null) {
+            throw new IOException("Out of order response");
+        }
+
+        server.incRequestsProcessed();
+
+        final String connection = handling.getHeader("Connection: ");
+        final boolean keepAlive = handling.isHttp11()
+                ? !"close".equalsIgnoreCase(connection)
+                : "Keep-Alive".equalsIgnoreCase(connection);
 
         final Response response = new Response(Response.OK);
-        response.addHeader("Transfer-Encoding: chunked");
+        response.addHeader("Content-Length: " + length);
+        response.addHeader(keepAlive ? "Connection: Keep-Alive" : "Connection: close");
         writeResponse(response, false);
+        if (length > 0) {
+            write(body, 0, length);
+        }
+        final boolean written = queueHead == null;
 
-        next();
+        if (!keepAlive) {
+            scheduleClose();
+        }
+
+        if ((this.handling = pipeline.pollFirst()) != null) {
+            if (this.handling == FIN) {
+                scheduleClose();
+            } else {
+                server.handleRequest(this.handling, this);
+            }
+        }
+        return written;
     }
 
     @NotNull
-    private static byte[] toByteArray(@NotNull final ByteBuffer buffer) {
-        final byte[] result = new byte[buffer.remaining()];
-        buffer.get(result);
-        return result;
+    private static byte[] trailerChunk(@NotNull final String token) {
+        return ("0\r\n" + ContinuationToken.TRAILER + ": " + token + "\r\n\r\n").getBytes(StandardCharsets.UTF_8);
     }
 
     @Override
-    protected void processWrite() throws Exception {
+    protected synchronized void processWrite() throws Exception {
         super.processWrite();
 
-        next();
+        if (queueHead == null) {
+            if (records == null) {
+                // The last chunk of the finished stream has been sent
+                encoder.recycle();
+            } else if (!scanning) {
+                scan();
+            }
+        }
     }
 
-    private byte[] getByteArr(final int size){
-        return new byte[size];
+    /**
+     * Submits the scan task, must be called holding the session.
+     */
+    private void scan() {
+        scanning = true;
+        try {
+            scanner.execute(new Scan());
+        } catch (RejectedExecutionException e) {
+            scanning = false;
+            closeRecords();
+            scheduleClose();
+        }
     }
 
-    private void next() throws IOException {
-        while (records.hasNext() && queueHead == null) {
-            final Record record = records.next();
-            final byte[] key = toByteArray(record.getKey());
-            final byte[] value = toByteArray(record.getValue());
+    /**
+     * Drops the stream of the scan task that never ran, closing the cursor and the session.
+     */
+    private void drop() {
+        final Cursor cursor;
+        synchronized (this) {
+            cursor = records;
+            release();
+        }
+        if (cursor != null) {
+            cursor.close();
+        }
+        close();
+    }
 
-            final int payloadLength = key.length + 1 + value.length;
-            final String size = Integer.toHexString(payloadLength);
+    /**
+     * Packs records into chunks without holding the session and writes them until the socket is full.
+     */
+    private void produce() {
+        final Cursor cursor;
+        synchronized (this) {
+            cursor = records;
+        }
+        try {
+            while (true) {
+                if (!pending) {
+                    if (remaining == 0 || !cursor.advance()) {
+                        send(encoder.flush(true), lastChunk(cursor));
+                        break;
+                    }
+                    pending = true;
+                }
+                final int length = length(cursor);
+                if (!encoder.fits(length) && !encoder.isEmpty()) {
+                    if (!send(encoder.flush(false), null)) {
+                        break;
+                    }
+                    continue;
+                }
+                encoder.reserve(length);
+                encode(cursor);
+                pending = false;
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("Can't stream records", e);
+            synchronized (this) {
+                release();
+            }
+            scheduleClose();
+        }
 
-            final int chunkLength = size.length() + 2 + payloadLength + 2;
+        synchronized (this) {
+            if (records == cursor) {
+                // Paused, resumed by processWrite once the socket drains
+                return;
+            }
+        }
+        cursor.close();
+    }
 
-            final byte[] chunk = getByteArr(chunkLength);
-            final ByteBuffer buffer = ByteBuffer.wrap(chunk);
+    /**
+     * Writes the chunk at the head of the encoder array, followed by the last chunk if any.
+     *
+     * @return whether the scan may go on encoding
+     */
+    private synchronized boolean send(
+            final int length,
+            @Nullable final byte[] last) throws IOException {
+        if (abandoned) {
+            release();
+            return false;
+        }
+        if (length > 0) {
+            write(encoder.array(), 0, length);
+        }
+        if (last != null) {
+            write(last, 0, last.length);
+            release();
+            complete();
+            return false;
+        }
+        if (queueHead != null) {
+            scanning = false;
+            return false;
+        }
+        return true;
+    }
 
-            buffer.put(size.getBytes(StandardCharsets.UTF_8));
-            buffer.put(CRLF);
-            buffer.put(key);
-            buffer.put(LF);
-            buffer.put(value);
-            buffer.put(CRLF);
-            write(chunk, 0, chunkLength);
+    /**
+     * Takes the cursor over from the session, the scan task closes it outside of the session lock.
+     */
+    private void release() {
+        encoder.end();
+        records = null;
+        scanning = false;
+        abandoned = false;
+        pending = false;
+        if (queueHead == null) {
+            encoder.recycle();
         }
+    }
 
-        if (!records.hasNext()) {
-            write(EMPTY_CHUNK, 0, EMPTY_CHUNK.length);
+    private int length(@NotNull final Cursor cursor) {
+        return encoder.length(cursor.key(), projection, value(cursor));
+    }
 
-            server.incRequestsProcessed();
+    @Nullable
+    private ByteBuffer value(@NotNull final Cursor cursor) {
+        // Cursors read values lazily, so keys only scans do not fetch them at all
+        return projection.hasValue() ? cursor.value() : null;
+    }
 
-            if ((handling = pipeline.pollFirst()) != null) {
-                if(handling == FIN) {
-                    scheduleClose();
-                } else {
-                    try {
-                        server.handleRequest(handling, this);
-                    } catch (IOException e) {
-                        log.error("Cant proces next request: " + handling, e);
-                    }
+    private void encode(@NotNull final Cursor cursor) {
+        remaining--;
+        final ByteBuffer key = cursor.key();
+        encoder.put(key, projection, value(cursor));
+        if (paged && remaining == 0) {
+            lastKey = new byte[key.remaining()];
+            Projection.copy(key, lastKey.length, lastKey, 0);
+        }
+    }
+
+    @NotNull
+    private byte[] lastChunk(@NotNull final Cursor cursor) {
+        final byte[] chunk = lastKey != null && cursor.advance()
+                ? trailerChunk(ContinuationToken.after(descending, lastKey))
+                : EMPTY_CHUNK;
+        lastKey = null;
+        return chunk;
+    }
+
+    /**
+     * Completes the request and goes on with the pipelined ones, must be called holding the session.
+     */
+    private void complete() {
+        server.incRequestsProcessed();
+
+        if ((handling = pipeline.pollFirst()) != null) {
+            if (handling == FIN) {
+                scheduleClose();
+            } else {
+                try {
+                    server.handleRequest(handling, this);
+                } catch (IOException e) {
+                    log.error("Cant proces next request: " + handling, e);
                 }
             }
         }
     }
+
+    /**
+     * The scan task, recognized among the ones left in the executor queue to {@link #drop()} them.
+     */
+    final class Scan implements Runnable {
+        @Override
+        public void run() {
+            produce();
+        }
+
+        void drop() {
+            StorageSession.this.drop();
+        }
+    }
 }
@@ -0,0 +1,93 @@
+package ru.mail.polis.service.impl;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Layout of the streamed records negotiated with the {@code Accept} header.
+ */
+enum StreamFormat {
+    /**
+     * A {@code <key>\n<value>} record per chunk, the default.
+     */
+    TEXT(null, 0, 0),
+    /**
+     * Batches of {@code <varint key length><key><varint value length><value>} records,
+     * every batch is prefixed with its 4 byte big endian length and a zero length batch ends the stream.
+     * The value length and the value are omitted for keys only projections.
+     */
+    BINARY(StreamFormat.BINARY_TYPE, 4, 0),
+    /**
+     * {@link #BINARY} with every non empty batch followed by the 4 byte big endian CRC32 of its records.
+     */
+    BINARY_CRC(StreamFormat.BINARY_TYPE + "; checksum=crc32", 4, 4);
+
+    static final String BINARY_TYPE = "application/x-records";
+
+    @Nullable
+    private final String contentType;
+    private final int batchHeader;
+    private final int batchTrailer;
+
+    StreamFormat(
+            @Nullable final String contentType,
+            final int batchHeader,
+            final int batchTrailer) {
+        this.contentType = contentType;
+        this.batchHeader = batchHeader;
+        this.batchTrailer = batchTrailer;
+    }
+
+    /**
+     * Picks the binary format if the client accepts {@value #BINARY_TYPE}, optionally with {@code checksum=crc32}.
+     */
+    @NotNull
+    static StreamFormat negotiate(@Nullable final String accept) {
+        if (accept == null || !accept.contains(BINARY_TYPE)) {
+            return TEXT;
+        }
+        return accept.contains("checksum=crc32") ? BINARY_CRC : BINARY;
+    }
+
+    @Nullable
+    String contentType() {
+        return contentType;
+    }
+
+    boolean isBinary() {
+        return this != TEXT;
+    }
+
+    /**
+     * Bytes preceding the records of a batch.
+     */
+    int batchHeader() {
+        return batchHeader;
+    }
+
+    /**
+     * Bytes following the records of a batch.
+     */
+    int batchTrailer() {
+        return batchTrailer;
+    }
+
+    /**
+     * Size of an encoded record.
+     *
+     * @param valueLength length of the value part or {@code -1} if there is none
+     */
+    int length(
+            final int keyLength,
+            final int valueLength) {
+        if (this == TEXT) {
+            return valueLength < 0 ? keyLength : keyLength + 1 + valueLength;
+        }
+        final int key = varintLength(keyLength) + keyLength;
+        return valueLength < 0 ? key : key + varintLength(valueLength) + valueLength;
+    }
+
+    static int varintLength(final int value) {
+        return (Integer.SIZE - Integer.numberOfLeadingZeros(value | 1) + 6) / 7;
+    }
+}
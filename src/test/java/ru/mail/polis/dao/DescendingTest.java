@@ -0,0 +1,125 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.Record;
+import ru.mail.polis.TestBase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Descending range scans over fresh, overwritten, removed and compacted records.
+ */
+class DescendingTest extends TestBase {
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    @Test
+    void emptyStorage(@TempDir File data) throws IOException {
+        try (DAO dao = DAOFactory.create(data)) {
+            assertDescending(new TreeMap<>(), dao, EMPTY, null);
+            assertDescending(new TreeMap<>(), dao, randomKeyBuffer(), randomKeyBuffer());
+        }
+    }
+
+    @Test
+    void freshAndCompacted(@TempDir File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>();
+        try (DAO dao = DAOFactory.create(data)) {
+            fill(dao, expected);
+            dao.compact();
+            // Shadow the compacted records with fresh ones
+            fill(dao, expected);
+            assertRanges(expected, dao);
+        }
+        try (DAO dao = DAOFactory.create(data)) {
+            assertRanges(expected, dao);
+        }
+    }
+
+    /**
+     * Upserts new keys, overwrites and removes some of the existing ones.
+     */
+    private static void fill(
+            @NotNull final DAO dao,
+            @NotNull final NavigableMap<ByteBuffer, ByteBuffer> expected) throws IOException {
+        for (int i = 0; i < 1000; i++) {
+            final ByteBuffer key = randomKeyBuffer();
+            final ByteBuffer value = randomValueBuffer();
+            dao.upsert(key, value);
+            expected.put(key, value);
+        }
+        int i = 0;
+        for (final Iterator<Map.Entry<ByteBuffer, ByteBuffer>> entries = expected.entrySet().iterator();
+             entries.hasNext(); i++) {
+            final Map.Entry<ByteBuffer, ByteBuffer> entry = entries.next();
+            if (i % 7 == 0) {
+                dao.remove(entry.getKey());
+                entries.remove();
+            } else if (i % 5 == 0) {
+                final ByteBuffer value = randomValueBuffer();
+                dao.upsert(entry.getKey(), value);
+                entry.setValue(value);
+            }
+        }
+    }
+
+    private static void assertRanges(
+            @NotNull final NavigableMap<ByteBuffer, ByteBuffer> expected,
+            @NotNull final DAO dao) throws IOException {
+        assertDescending(expected, dao, EMPTY, null);
+        final ByteBuffer existing = expected.ceilingKey(randomKeyBuffer());
+        final ByteBuffer lower = randomKeyBuffer();
+        final ByteBuffer upper = randomKeyBuffer();
+        assertDescending(expected, dao, lower, null);
+        if (lower.compareTo(upper) < 0) {
+            assertDescending(expected, dao, lower, upper);
+        } else {
+            assertDescending(expected, dao, upper, lower);
+        }
+        if (existing != null) {
+            // Inclusive and exclusive bounds on the existing keys
+            assertDescending(expected, dao, existing, null);
+            assertDescending(expected, dao, EMPTY, existing);
+            assertDescending(expected, dao, existing, existing);
+        }
+    }
+
+    private static void assertDescending(
+            @NotNull final NavigableMap<ByteBuffer, ByteBuffer> expected,
+            @NotNull final DAO dao,
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> range = to == null
+                ? expected.tailMap(from, true)
+                : from.compareTo(to) < 0 ? expected.subMap(from, true, to, false) : new TreeMap<>();
+        try (CloseableIterator<Record> records = dao.descendingRange(from, to)) {
+            for (final Map.Entry<ByteBuffer, ByteBuffer> entry : range.descendingMap().entrySet()) {
+                assertTrue(records.hasNext());
+                final Record record = records.next();
+                assertEquals(entry.getKey(), record.getKey());
+                assertEquals(entry.getValue(), record.getValue());
+            }
+            assertFalse(records.hasNext());
+        }
+        try (Cursor cursor = dao.descendingCursor(from, to, 10)) {
+            for (final Map.Entry<ByteBuffer, ByteBuffer> entry : range.descendingMap().entrySet()) {
+                assertTrue(cursor.advance());
+                assertEquals(entry.getKey(), cursor.key());
+                assertEquals(entry.getValue(), cursor.value());
+            }
+            assertFalse(cursor.advance());
+        }
+    }
+}
@@ -20,6 +20,8 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterators;
 import org.junit.jupiter.api.Test;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 
@@ -55,4 +57,19 @@ class ItersTest {
                 ImmutableList.of(1, 2, 3, 5, 6),
                 ImmutableList.copyOf(collapsed));
     }
+
+    @Test
+    void closeOnce() {
+        final AtomicInteger closed = new AtomicInteger();
+        final CloseableIterator<Integer> iter = Iters.until(
+                Iters.closeable(ImmutableList.of(1, 2, 3).iterator(), closed::incrementAndGet),
+                3);
+
+        assertEquals(2, Iterators.size(iter));
+        assertEquals(0, closed.get());
+
+        iter.close();
+        iter.close();
+        assertEquals(1, closed.get());
+    }
 }
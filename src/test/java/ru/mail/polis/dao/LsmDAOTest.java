@@ -0,0 +1,247 @@
+package ru.mail.polis.dao;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.Files;
+import ru.mail.polis.Record;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.dao.impl.lsm.LsmDAO;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link LsmDAO} specific behaviour: flushes, log replay and compaction.
+ */
+class LsmDAOTest extends TestBase {
+    private static final long FLUSH_THRESHOLD = 64 * 1024;
+
+    @Test
+    void flushedAndFresh(@TempDir File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>();
+        try (DAO dao = new LsmDAO(data, FLUSH_THRESHOLD)) {
+            for (int i = 0; i < 1000; i++) {
+                final ByteBuffer key = randomKeyBuffer();
+                final ByteBuffer value = randomValueBuffer();
+                dao.upsert(key, value);
+                expected.put(key, value);
+            }
+            assertTrue(data.list().length > 2);
+            assertSameContents(expected, dao);
+        }
+    }
+
+    @Test
+    void removeShadowsFlushed(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKeyBuffer();
+        try (DAO dao = new LsmDAO(data, FLUSH_THRESHOLD)) {
+            dao.upsert(key, randomValueBuffer());
+            fill(dao);
+            dao.remove(key);
+            assertThrows(NoSuchElementException.class, () -> dao.get(key));
+            fill(dao);
+            assertThrows(NoSuchElementException.class, () -> dao.get(key));
+        }
+        try (DAO dao = new LsmDAO(data, FLUSH_THRESHOLD)) {
+            assertThrows(NoSuchElementException.class, () -> dao.get(key));
+        }
+    }
+
+    @Test
+    void rangeSize(@TempDir File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>();
+        try (DAO dao = new LsmDAO(data, FLUSH_THRESHOLD)) {
+            for (int i = 0; i < 1000; i++) {
+                final ByteBuffer key = randomKeyBuffer();
+                final ByteBuffer value = randomValueBuffer();
+                dao.upsert(key, value);
+                expected.put(key, value);
+            }
+            final ByteBuffer from = expected.firstKey();
+            final ByteBuffer to = expected.lastKey();
+            final Map<ByteBuffer, ByteBuffer> within = expected.headMap(to);
+            long bytes = 0;
+            for (final Map.Entry<ByteBuffer, ByteBuffer> entry : within.entrySet()) {
+                bytes += entry.getKey().remaining() + entry.getValue().remaining();
+            }
+
+            final RangeSize size = dao.size(from, to);
+            assertEquals(within.size(), size.getCount());
+            assertEquals(bytes, size.getBytes());
+        }
+    }
+
+    @Test
+    void removeRange(@TempDir File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>();
+        try (DAO dao = new LsmDAO(data, FLUSH_THRESHOLD)) {
+            for (int i = 0; i < 3000; i++) {
+                final ByteBuffer key = randomKeyBuffer();
+                final ByteBuffer value = randomValueBuffer();
+                dao.upsert(key, value);
+                expected.put(key, value);
+            }
+            final ByteBuffer from = expected.keySet().stream().skip(1000).findFirst().orElseThrow();
+            final ByteBuffer to = expected.keySet().stream().skip(2000).findFirst().orElseThrow();
+            dao.removeRange(from, to);
+            expected.subMap(from, to).clear();
+            assertSameContents(expected, dao);
+        }
+        try (DAO dao = new LsmDAO(data, FLUSH_THRESHOLD)) {
+            assertSameContents(expected, dao);
+        }
+    }
+
+    @Test
+    void replayLog(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKeyBuffer();
+        final ByteBuffer value = randomValueBuffer();
+        final ByteBuffer removed = randomKeyBuffer();
+
+        // Abandon the storage without closing it
+        final DAO crashed = new LsmDAO(data, FLUSH_THRESHOLD);
+        crashed.upsert(removed, randomValueBuffer());
+        crashed.upsert(key, value);
+        crashed.remove(removed);
+
+        try (DAO dao = new LsmDAO(data, FLUSH_THRESHOLD)) {
+            assertEquals(value, dao.get(key));
+            assertThrows(NoSuchElementException.class, () -> dao.get(removed));
+        }
+    }
+
+    @Test
+    void tornBatch(@TempDir File data) throws IOException {
+        final ByteBuffer applied = randomKeyBuffer();
+        final ByteBuffer first = randomKeyBuffer();
+        final ByteBuffer second = randomKeyBuffer();
+
+        // Abandon the storage without closing it
+        final DAO crashed = new LsmDAO(data, FLUSH_THRESHOLD);
+        crashed.upsert(applied, randomValueBuffer());
+        crashed.apply(List.of(
+                Mutation.upsert(first, randomValueBuffer()),
+                Mutation.upsert(second, randomValueBuffer()),
+                Mutation.remove(applied)));
+
+        // Tear the last record
+        final File[] logs = data.listFiles((dir, name) -> name.endsWith(".log"));
+        assertEquals(1, logs.length);
+        try (RandomAccessFile log = new RandomAccessFile(logs[0], "rw")) {
+            log.setLength(log.length() - 1);
+        }
+
+        try (DAO dao = new LsmDAO(data, FLUSH_THRESHOLD)) {
+            dao.get(applied);
+            assertThrows(NoSuchElementException.class, () -> dao.get(first));
+            assertThrows(NoSuchElementException.class, () -> dao.get(second));
+        }
+    }
+
+    @Test
+    void batchInOrder(@TempDir File data) throws IOException {
+        final ByteBuffer removed = randomKeyBuffer();
+        final ByteBuffer overwritten = randomKeyBuffer();
+        final ByteBuffer value = randomValueBuffer();
+        try (DAO dao = new LsmDAO(data, FLUSH_THRESHOLD)) {
+            dao.apply(List.of(
+                    Mutation.upsert(removed, randomValueBuffer()),
+                    Mutation.upsert(overwritten, randomValueBuffer()),
+                    Mutation.remove(removed),
+                    Mutation.upsert(overwritten, value)));
+            assertThrows(NoSuchElementException.class, () -> dao.get(removed));
+            assertEquals(value, dao.get(overwritten));
+        }
+        try (DAO dao = new LsmDAO(data, FLUSH_THRESHOLD)) {
+            assertThrows(NoSuchElementException.class, () -> dao.get(removed));
+            assertEquals(value, dao.get(overwritten));
+        }
+    }
+
+    @Test
+    void batchPrefixVisible(@TempDir File data) throws Exception {
+        final ByteBuffer first = randomKeyBuffer();
+        final ByteBuffer second = randomKeyBuffer();
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (DAO dao = new LsmDAO(data, FLUSH_THRESHOLD)) {
+            dao.apply(List.of(Mutation.upsert(first, intBuffer(0)), Mutation.upsert(second, intBuffer(0))));
+            final Future<?> writer = executor.submit(() -> {
+                for (int i = 1; i <= 20_000; i++) {
+                    dao.apply(List.of(Mutation.upsert(first, intBuffer(i)), Mutation.upsert(second, intBuffer(i))));
+                }
+                return null;
+            });
+            while (!writer.isDone()) {
+                // The second mutation is never visible without the first one, flushes included
+                final int latest = dao.get(second).getInt(0);
+                assertTrue(dao.get(first).getInt(0) >= latest);
+            }
+            writer.get();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void compact(@TempDir File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>();
+        try (DAO dao = new LsmDAO(data, FLUSH_THRESHOLD)) {
+            for (int round = 0; round < 5; round++) {
+                for (int i = 0; i < 100; i++) {
+                    final ByteBuffer key = ByteBuffer.wrap(("key" + i).getBytes());
+                    final ByteBuffer value = randomValueBuffer();
+                    dao.upsert(key, value);
+                    expected.put(key, value);
+                }
+            }
+            final long before = Files.directorySize(data);
+            dao.compact();
+            assertTrue(Files.directorySize(data) < before);
+            assertSameContents(expected, dao);
+        }
+        try (DAO dao = new LsmDAO(data, FLUSH_THRESHOLD)) {
+            assertSameContents(expected, dao);
+        }
+    }
+
+    private static void fill(final DAO dao) throws IOException {
+        for (int i = 0; i < 200; i++) {
+            dao.upsert(randomKeyBuffer(), randomValueBuffer());
+        }
+    }
+
+    private static void assertSameContents(
+            final NavigableMap<ByteBuffer, ByteBuffer> expected,
+            final DAO dao) throws IOException {
+        final Iterator<Record> actual = dao.iterator(ByteBuffer.allocate(0));
+        for (final Map.Entry<ByteBuffer, ByteBuffer> entry : expected.entrySet()) {
+            assertTrue(actual.hasNext());
+            final Record record = actual.next();
+            assertEquals(entry.getKey(), record.getKey());
+            assertEquals(entry.getValue(), record.getValue());
+        }
+        assertFalse(actual.hasNext());
+    }
+
+    private static ByteBuffer intBuffer(final int value) {
+        final ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES);
+        buffer.putInt(0, value);
+        return buffer;
+    }
+}
@@ -0,0 +1,103 @@
+package ru.mail.polis.dao;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.Record;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.dao.impl.MappedDAO;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link MappedDAO} serving a pre-built dataset.
+ */
+class MappedDAOTest extends TestBase {
+    @Test
+    void empty(@TempDir File data) throws IOException {
+        try (DAO dao = new MappedDAO(new File(data, MappedDAO.DATASET))) {
+            assertFalse(dao.iterator(randomKeyBuffer()).hasNext());
+            assertThrows(NoSuchElementException.class, () -> dao.get(randomKeyBuffer()));
+            assertThrows(ReadOnlyStorageException.class, () -> dao.upsert(randomKeyBuffer(), randomValueBuffer()));
+            assertThrows(ReadOnlyStorageException.class, () -> dao.remove(randomKeyBuffer()));
+        }
+    }
+
+    @Test
+    void lookups(@TempDir File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>();
+        for (int i = 0; i < 1000; i++) {
+            expected.put(randomKeyBuffer(), randomBuffer(1 + i % 100));
+        }
+        final File file = new File(data, MappedDAO.DATASET);
+        MappedDAO.write(file, expected.entrySet().stream().map(e -> Record.of(e.getKey(), e.getValue())).iterator());
+
+        try (DAO dao = new MappedDAO(file)) {
+            for (final Map.Entry<ByteBuffer, ByteBuffer> entry : expected.entrySet()) {
+                assertEquals(entry.getValue(), dao.get(entry.getKey()));
+            }
+            assertThrows(NoSuchElementException.class, () -> dao.get(randomKeyBuffer()));
+
+            // Seek to a random point between the keys
+            final ByteBuffer from = randomKeyBuffer();
+            final Iterator<Record> records = dao.iterator(from);
+            for (final Map.Entry<ByteBuffer, ByteBuffer> entry : expected.tailMap(from).entrySet()) {
+                assertTrue(records.hasNext());
+                final Record record = records.next();
+                assertEquals(entry.getKey(), record.getKey());
+                assertEquals(entry.getValue(), record.getValue());
+            }
+            assertFalse(records.hasNext());
+        }
+    }
+
+    @Test
+    void descending(@TempDir File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>();
+        for (int i = 0; i < 1000; i++) {
+            expected.put(randomKeyBuffer(), randomBuffer(1 + i % 100));
+        }
+        final File file = new File(data, MappedDAO.DATASET);
+        MappedDAO.write(file, expected.entrySet().stream().map(e -> Record.of(e.getKey(), e.getValue())).iterator());
+
+        try (DAO dao = new MappedDAO(file)) {
+            final ByteBuffer lower = expected.higherKey(randomKeyBuffer());
+            final ByteBuffer upper = expected.lowerKey(randomKeyBuffer());
+            assertDescending(expected, dao, ByteBuffer.allocate(0), null);
+            assertDescending(expected, dao, expected.firstKey(), expected.lastKey());
+            if (lower != null && upper != null && lower.compareTo(upper) < 0) {
+                assertDescending(expected.subMap(lower, true, upper, false), dao, lower, upper);
+            }
+            assertFalse(dao.descendingRange(expected.lastKey(), expected.firstKey()).hasNext());
+        }
+    }
+
+    private static void assertDescending(
+            final NavigableMap<ByteBuffer, ByteBuffer> expected,
+            final DAO dao,
+            final ByteBuffer from,
+            final ByteBuffer to) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> range = to == null
+                ? expected.tailMap(from, true)
+                : expected.subMap(from, true, to, false);
+        final Iterator<Record> records = dao.descendingRange(from, to);
+        for (final Map.Entry<ByteBuffer, ByteBuffer> entry : range.descendingMap().entrySet()) {
+            assertTrue(records.hasNext());
+            final Record record = records.next();
+            assertEquals(entry.getKey(), record.getKey());
+            assertEquals(entry.getValue(), record.getValue());
+        }
+        assertFalse(records.hasNext());
+    }
+}
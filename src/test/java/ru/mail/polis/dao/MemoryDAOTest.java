@@ -0,0 +1,230 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.Record;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.dao.impl.lsm.MemoryDAO;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the off-heap skip list behind {@link MemoryDAO}.
+ */
+class MemoryDAOTest extends TestBase {
+    private static final long ROTATION_THRESHOLD = 256 * 1024;
+
+    @Test
+    void overwriteAndRemove() throws IOException {
+        final ByteBuffer key = randomKeyBuffer();
+        final ByteBuffer value = randomValueBuffer();
+        try (DAO dao = new MemoryDAO()) {
+            dao.upsert(key, randomValueBuffer());
+            dao.upsert(key, value);
+            assertEquals(value, dao.get(key));
+            dao.remove(key);
+            assertThrows(NoSuchElementException.class, () -> dao.get(key));
+            assertFalse(dao.iterator(ByteBuffer.allocate(0)).hasNext());
+        }
+    }
+
+    @Test
+    void signedByteOrder() throws IOException {
+        try (DAO dao = new MemoryDAO()) {
+            final byte[][] keys = {{-1}, {0, 0, 0, 0, 0, 0, 0, 0, -128}, {0, 0, 0, 0, 0, 0, 0, 0, 1}, {1}, {127, 0}};
+            for (int i = keys.length - 1; i >= 0; i--) {
+                dao.upsert(ByteBuffer.wrap(keys[i]), ByteBuffer.wrap(keys[i]));
+            }
+            final Iterator<Record> records = dao.iterator(ByteBuffer.wrap(new byte[]{-1}));
+            for (final byte[] key : keys) {
+                assertEquals(ByteBuffer.wrap(key), records.next().getKey());
+            }
+            assertFalse(records.hasNext());
+        }
+    }
+
+    @Test
+    void cursorWithinRange() throws IOException {
+        try (DAO dao = new MemoryDAO()) {
+            for (int i = 0; i < 5; i++) {
+                dao.upsert(ByteBuffer.wrap(new byte[]{(byte) i}), ByteBuffer.wrap(new byte[]{(byte) (10 + i)}));
+            }
+            try (Cursor cursor = dao.cursor(ByteBuffer.wrap(new byte[]{1}), ByteBuffer.wrap(new byte[]{4}))) {
+                for (int i = 1; i < 4; i++) {
+                    assertTrue(cursor.advance());
+                    assertEquals(ByteBuffer.wrap(new byte[]{(byte) i}), cursor.key());
+                    assertEquals(ByteBuffer.wrap(new byte[]{(byte) (10 + i)}), cursor.value());
+                }
+                assertFalse(cursor.advance());
+                assertThrows(NoSuchElementException.class, cursor::key);
+            }
+        }
+    }
+
+    @Test
+    void descendingRange() throws IOException {
+        try (DAO dao = new MemoryDAO()) {
+            for (int i = 0; i < 5; i++) {
+                dao.upsert(ByteBuffer.wrap(new byte[]{(byte) i}), ByteBuffer.wrap(new byte[]{(byte) i}));
+            }
+            try (Cursor cursor = dao.descendingCursor(ByteBuffer.wrap(new byte[]{1}), ByteBuffer.wrap(new byte[]{4}))) {
+                for (int i = 3; i >= 1; i--) {
+                    assertTrue(cursor.advance());
+                    assertEquals(ByteBuffer.wrap(new byte[]{(byte) i}), cursor.key());
+                }
+                assertFalse(cursor.advance());
+            }
+        }
+    }
+
+    @Test
+    void batchInOrder() throws IOException {
+        final ByteBuffer removed = randomKeyBuffer();
+        final ByteBuffer overwritten = randomKeyBuffer();
+        final ByteBuffer value = randomValueBuffer();
+        try (DAO dao = new MemoryDAO()) {
+            dao.apply(List.of(
+                    Mutation.upsert(removed, randomValueBuffer()),
+                    Mutation.upsert(overwritten, randomValueBuffer()),
+                    Mutation.remove(removed),
+                    Mutation.upsert(overwritten, value)));
+            assertThrows(NoSuchElementException.class, () -> dao.get(removed));
+            assertEquals(value, dao.get(overwritten));
+        }
+    }
+
+    @Test
+    void batchPrefixVisible() throws Exception {
+        final ByteBuffer first = randomKeyBuffer();
+        final ByteBuffer second = randomKeyBuffer();
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (DAO dao = new MemoryDAO()) {
+            dao.apply(List.of(Mutation.upsert(first, intBuffer(0)), Mutation.upsert(second, intBuffer(0))));
+            final Future<?> writer = executor.submit(() -> {
+                for (int i = 1; i <= 100_000; i++) {
+                    dao.apply(List.of(Mutation.upsert(first, intBuffer(i)), Mutation.upsert(second, intBuffer(i))));
+                }
+                return null;
+            });
+            while (!writer.isDone()) {
+                // The second mutation is never visible without the first one
+                final int latest = dao.get(second).getInt(0);
+                assertTrue(dao.get(first).getInt(0) >= latest);
+            }
+            writer.get();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void concurrentWriters() throws Exception {
+        final int threads = 8;
+        final int perThread = 20_000;
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new ConcurrentSkipListMap<>();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (DAO dao = new MemoryDAO()) {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        // Narrow key space to make writers collide
+                        final ByteBuffer key = ByteBuffer.allocate(Integer.BYTES);
+                        key.putInt(0, ThreadLocalRandom.current().nextInt(perThread));
+                        final ByteBuffer value = randomBuffer(8);
+                        dao.upsert(key, value);
+                        expected.putIfAbsent(key, value);
+                    }
+                    return null;
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+
+            final Iterator<Record> records = dao.iterator(ByteBuffer.allocate(0));
+            for (final Map.Entry<ByteBuffer, ByteBuffer> entry : expected.entrySet()) {
+                assertTrue(records.hasNext());
+                assertEquals(entry.getKey(), records.next().getKey());
+            }
+            assertFalse(records.hasNext());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void overwritesReclaimed() throws IOException {
+        final ByteBuffer key = randomKeyBuffer();
+        try (DAO dao = new MemoryDAO(ROTATION_THRESHOLD)) {
+            ByteBuffer value = null;
+            for (int i = 0; i < 10_000; i++) {
+                value = randomBuffer(1024);
+                dao.upsert(key, value);
+            }
+            assertEquals(value, dao.get(key));
+            assertTrue(memTableBytes(dao) < 2 * ROTATION_THRESHOLD);
+        }
+    }
+
+    @Test
+    void tombstonesReclaimed() throws IOException {
+        try (DAO dao = new MemoryDAO(ROTATION_THRESHOLD)) {
+            for (int i = 0; i < 10_000; i++) {
+                final ByteBuffer key = randomKeyBuffer();
+                dao.upsert(key, randomBuffer(256));
+                dao.remove(key);
+            }
+            assertFalse(dao.iterator(ByteBuffer.allocate(0)).hasNext());
+            assertTrue(memTableBytes(dao) < 2 * ROTATION_THRESHOLD);
+        }
+    }
+
+    @Test
+    void iteratorSurvivesRotation() throws IOException {
+        final ByteBuffer key = randomKeyBuffer();
+        final ByteBuffer value = randomValueBuffer();
+        try (DAO dao = new MemoryDAO(ROTATION_THRESHOLD)) {
+            dao.upsert(key, value);
+            final Iterator<Record> records = dao.iterator(ByteBuffer.allocate(0));
+            final long size = memTableBytes(dao);
+            for (int i = 0; i < 1_000; i++) {
+                dao.upsert(key, randomBuffer(1024));
+            }
+            assertTrue(memTableBytes(dao) < size + 1_000 * 1024);
+
+            // Still reads the table it started with, as of the rotation
+            final Record record = records.next();
+            assertEquals(key, record.getKey());
+            assertEquals(1024, record.getValue().remaining());
+            assertFalse(records.hasNext());
+        }
+    }
+
+    private static long memTableBytes(@NotNull final DAO dao) {
+        return dao.stats().get("memtable.bytes").longValue();
+    }
+
+    private static ByteBuffer intBuffer(final int value) {
+        final ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES);
+        buffer.putInt(0, value);
+        return buffer;
+    }
+}
@@ -0,0 +1,277 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.Record;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.dao.impl.RocksDAO;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link RocksDAO} specific behaviour, partly observed through its stats.
+ */
+class RocksDAOTest extends TestBase {
+    private static final int KEYS = 1_000;
+
+    @NotNull
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(String.format("key%05d", i).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Writes the even keys and flushes them to a single table.
+     */
+    private static void fillEven(@NotNull final DAO dao) throws IOException {
+        for (int i = 0; i < 2 * KEYS; i += 2) {
+            dao.upsert(key(i), randomValueBuffer());
+        }
+        dao.compact();
+    }
+
+    @NotNull
+    private static ByteBuffer value(final int i) {
+        return ByteBuffer.wrap(("value" + i).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @NotNull
+    private static List<ByteBuffer> keys(final int... indexes) {
+        final List<ByteBuffer> keys = new ArrayList<>(indexes.length);
+        for (final int i : indexes) {
+            keys.add(key(i));
+        }
+        return keys;
+    }
+
+    @NotNull
+    private static List<ByteBuffer> keysOf(@NotNull final CloseableIterator<Record> records) {
+        final List<ByteBuffer> keys = new ArrayList<>();
+        try (records) {
+            while (records.hasNext()) {
+                keys.add(records.next().getKey());
+            }
+        }
+        return keys;
+    }
+
+    @NotNull
+    private static List<ByteBuffer> keysOf(@NotNull final Cursor cursor) {
+        final List<ByteBuffer> keys = new ArrayList<>();
+        try (cursor) {
+            while (cursor.advance()) {
+                keys.add(cursor.key());
+            }
+        }
+        return keys;
+    }
+
+    private static long stat(
+            @NotNull final DAO dao,
+            @NotNull final String name) {
+        final Map<String, Number> stats = dao.stats();
+        assertTrue(stats.containsKey(name), name);
+        return stats.get(name).longValue();
+    }
+
+    @Test
+    void bloomFilter(@TempDir File data) throws Exception {
+        try (DAO dao = new RocksDAO(data)) {
+            fillEven(dao);
+
+            final long useful = stat(dao, "bloom.useful");
+            final long falsePositive = stat(dao, "bloom.false_positive");
+            for (int i = 1; i < 2 * KEYS; i += 2) {
+                final ByteBuffer absent = key(i);
+                assertThrows(NoSuchElementException.class, () -> dao.get(absent));
+            }
+            // Every absent key within the table span is checked against its filter
+            final long ruledOut = stat(dao, "bloom.useful") - useful;
+            final long letThrough = stat(dao, "bloom.false_positive") - falsePositive;
+            assertEquals(KEYS, ruledOut + letThrough);
+            assertTrue(letThrough < KEYS / 20, "False positives: " + letThrough);
+
+            // The present keys pass the filter without being counted as false positives
+            for (int i = 0; i < 2 * KEYS; i += 2) {
+                dao.get(key(i));
+            }
+            assertEquals(falsePositive + letThrough, stat(dao, "bloom.false_positive"));
+            assertEquals(useful + ruledOut, stat(dao, "bloom.useful"));
+        }
+    }
+
+    @Test
+    void sharedBlockCache(@TempDir File data) throws Exception {
+        try (DAO dao = new RocksDAO(new File(data, "first"));
+             DAO neighbour = new RocksDAO(new File(data, "second"))) {
+            fillEven(dao);
+
+            // Point reads fill the cache with the data blocks
+            final long misses = stat(dao, "cache.data.miss");
+            for (int i = 0; i < 2 * KEYS; i += 2) {
+                dao.get(key(i));
+            }
+            assertTrue(stat(dao, "cache.data.miss") > misses);
+
+            // And find them there the next time
+            final long hits = stat(dao, "cache.data.hit");
+            final long missesAfterFill = stat(dao, "cache.data.miss");
+            for (int i = 0; i < 2 * KEYS; i += 2) {
+                dao.get(key(i));
+            }
+            assertTrue(stat(dao, "cache.data.hit") - hits >= KEYS);
+            assertEquals(missesAfterFill, stat(dao, "cache.data.miss"));
+            assertEquals(stat(dao, "cache.hit"), stat(dao, "cache.data.hit")
+                    + stat(dao, "cache.index.hit") + stat(dao, "cache.filter.hit"));
+
+            // The other instance charges the same cache
+            final long usage = stat(dao, "cache.usage");
+            assertTrue(usage > 0);
+            assertTrue(usage <= stat(dao, "cache.capacity"));
+            assertEquals(usage, stat(neighbour, "cache.usage"));
+        }
+    }
+
+    @Test
+    void snapshotScan(@TempDir File data) throws Exception {
+        try (DAO dao = new RocksDAO(data)) {
+            for (int i = 0; i < 10; i++) {
+                dao.upsert(key(2 * i), value(i));
+            }
+            assertEquals(0, stat(dao, "snapshots"));
+
+            try (CloseableIterator<Record> records = dao.iterator(key(0));
+                 Cursor cursor = dao.cursor(key(0), key(20))) {
+                assertEquals(2, stat(dao, "snapshots"));
+
+                // Written while the scans are open
+                dao.upsert(key(0), value(100));
+                dao.upsert(key(1), value(101));
+                dao.remove(key(2));
+                dao.upsert(key(19), value(119));
+
+                for (int i = 0; i < 10; i++) {
+                    final Record record = records.next();
+                    assertEquals(key(2 * i), record.getKey());
+                    assertEquals(value(i), record.getValue());
+
+                    assertTrue(cursor.advance());
+                    assertEquals(key(2 * i), cursor.key());
+                    assertEquals(value(i), cursor.value());
+                }
+                assertFalse(records.hasNext());
+                assertFalse(cursor.advance());
+                // Exhausted scans keep the snapshots until closed
+                assertEquals(2, stat(dao, "snapshots"));
+            }
+            assertEquals(0, stat(dao, "snapshots"));
+
+            // A fresh scan sees the writes
+            try (CloseableIterator<Record> records = dao.iterator(key(0))) {
+                assertEquals(value(100), records.next().getValue());
+                assertEquals(key(1), records.next().getKey());
+                assertEquals(key(4), records.next().getKey());
+            }
+            assertEquals(0, stat(dao, "snapshots"));
+        }
+    }
+
+    @Test
+    void rangeBounds(@TempDir File data) throws Exception {
+        try (DAO dao = new RocksDAO(data)) {
+            // Half of the keys flushed, the rest in the memtable
+            for (int i = 0; i < 20; i += 4) {
+                dao.upsert(key(i), value(i));
+            }
+            dao.compact();
+            for (int i = 2; i < 20; i += 4) {
+                dao.upsert(key(i), value(i));
+            }
+
+            // Between the keys, the limits only tune the short and the bulk scans
+            assertEquals(keys(2, 4, 6), keysOf(dao.range(key(2), key(7))));
+            assertEquals(keys(2, 4, 6), keysOf(dao.cursor(key(2), key(7))));
+            assertEquals(keys(2, 4, 6), keysOf(dao.cursor(key(1), key(7), 2)));
+            assertEquals(keys(2, 4, 6), keysOf(dao.cursor(key(1), key(7), Long.MAX_VALUE - 1)));
+            assertEquals(keys(6, 4, 2), keysOf(dao.descendingRange(key(1), key(7))));
+            assertEquals(keys(6, 4, 2), keysOf(dao.descendingCursor(key(1), key(7))));
+
+            // On an existing key, which stays out
+            assertEquals(keys(2, 4, 6), keysOf(dao.range(key(2), key(8))));
+            assertEquals(keys(2, 4, 6), keysOf(dao.cursor(key(2), key(8))));
+            assertEquals(keys(2, 4, 6), keysOf(dao.cursor(key(2), key(8), 10)));
+            assertEquals(keys(6, 4, 2), keysOf(dao.descendingRange(key(2), key(8))));
+            assertEquals(keys(6, 4, 2), keysOf(dao.descendingCursor(key(2), key(8), 2)));
+
+            // Open ranges go on to the last key
+            assertEquals(keys(14, 16, 18), keysOf(dao.range(key(14), null)));
+            assertEquals(keys(14, 16, 18), keysOf(dao.cursor(key(13), null)));
+            assertEquals(keys(14, 16, 18), keysOf(dao.cursor(key(14), null, 2)));
+            assertEquals(keys(18, 16, 14), keysOf(dao.descendingRange(key(14), null)));
+            assertEquals(keys(18, 16, 14), keysOf(dao.descendingCursor(key(13), null)));
+
+            // Empty ranges
+            assertEquals(keys(), keysOf(dao.range(key(4), key(4))));
+            assertEquals(keys(), keysOf(dao.cursor(key(3), key(4))));
+            assertEquals(keys(), keysOf(dao.descendingCursor(key(4), key(4))));
+            assertEquals(keys(), keysOf(dao.range(key(19), null)));
+        }
+    }
+
+    @Test
+    void removeRange(@TempDir File data) throws Exception {
+        try (DAO dao = new RocksDAO(data)) {
+            // Nothing to remove in an empty storage
+            dao.removeRange(key(0), null);
+
+            // Half of the keys flushed, the rest in the memtable
+            for (int i = 0; i < 10; i += 2) {
+                dao.upsert(key(i), value(i));
+            }
+            dao.compact();
+            for (int i = 1; i < 10; i += 2) {
+                dao.upsert(key(i), value(i));
+            }
+
+            // Bounded, the end stays
+            dao.removeRange(key(2), key(5));
+            assertEquals(keys(0, 1, 5, 6, 7, 8, 9), keysOf(dao.range(key(0), null)));
+            assertThrows(NoSuchElementException.class, () -> dao.get(key(3)));
+            assertEquals(value(5), dao.get(key(5)));
+
+            // Empty and reversed ranges remove nothing
+            dao.removeRange(key(6), key(6));
+            dao.removeRange(key(8), key(6));
+            dao.removeRange(key(10), null);
+            assertEquals(keys(0, 1, 5, 6, 7, 8, 9), keysOf(dao.range(key(0), null)));
+
+            // Open ended, the last key included, both before and after a flush
+            dao.removeRange(key(8), null);
+            assertEquals(keys(0, 1, 5, 6, 7), keysOf(dao.range(key(0), null)));
+            dao.compact();
+            assertEquals(keys(0, 1, 5, 6, 7), keysOf(dao.range(key(0), null)));
+            dao.removeRange(key(6), null);
+            assertEquals(keys(0, 1, 5), keysOf(dao.range(key(0), null)));
+
+            // The removed keys may be written again
+            dao.upsert(key(9), value(90));
+            assertEquals(value(90), dao.get(key(9)));
+            assertEquals(keys(5, 9), keysOf(dao.range(key(2), null)));
+
+            dao.removeRange(key(0), null);
+            assertEquals(keys(), keysOf(dao.range(key(0), null)));
+        }
+    }
+}
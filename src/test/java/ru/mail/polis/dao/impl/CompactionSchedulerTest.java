@@ -0,0 +1,146 @@
+package ru.mail.polis.dao.impl;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.rocksdb.Options;
+import org.rocksdb.RocksDB;
+import ru.mail.polis.Files;
+import ru.mail.polis.dao.CompactionTask;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link CompactionScheduler} over a plain RocksDB.
+ */
+class CompactionSchedulerTest {
+    private File data;
+    private Options options;
+    private RocksDB db;
+    private ExecutorService executor;
+    private CompactionScheduler scheduler;
+    /**
+     * Holds the compaction thread until released, so the compactions stay queued as running.
+     */
+    private final CountDownLatch released = new CountDownLatch(1);
+
+    @BeforeEach
+    void beforeEach() throws Exception {
+        RocksDB.loadLibrary();
+        data = Files.createTempDirectory();
+        options = new Options().setCreateIfMissing(true);
+        db = RocksDB.open(options, data.getAbsolutePath());
+        for (int i = 0; i < 1_000; i++) {
+            db.put(bytes("key" + i), bytes("value" + i));
+        }
+        executor = Executors.newSingleThreadExecutor();
+        scheduler = new CompactionScheduler(db, executor);
+    }
+
+    @AfterEach
+    void afterEach() throws InterruptedException, IOException {
+        released.countDown();
+        scheduler.close();
+        db.close();
+        options.close();
+        Files.recursiveDelete(data);
+    }
+
+    @NotNull
+    private static byte[] bytes(@NotNull final String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @NotNull
+    private static List<ByteBuffer> splits() {
+        return List.of(ByteBuffer.wrap(bytes("key3")), ByteBuffer.wrap(bytes("key6")));
+    }
+
+    private void hold() {
+        executor.execute(() -> {
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    @Test
+    void done() throws InterruptedException {
+        final CompactionTask task = scheduler.start(splits());
+        task.await();
+        assertEquals(CompactionTask.State.DONE, task.state());
+        assertEquals(1.0, task.progress());
+
+        // Every finished compaction may be followed by another one
+        final CompactionTask next = scheduler.start(List.of());
+        assertNotSame(task, next);
+        next.await();
+        assertEquals(CompactionTask.State.DONE, next.state());
+        assertEquals(1.0, next.progress());
+    }
+
+    @Test
+    void runningOnce() throws InterruptedException {
+        hold();
+        final CompactionTask task = scheduler.start(splits());
+        assertEquals(CompactionTask.State.RUNNING, task.state());
+        assertEquals(0.0, task.progress());
+        assertSame(task, scheduler.start(List.of()));
+
+        released.countDown();
+        task.await();
+        assertEquals(CompactionTask.State.DONE, task.state());
+    }
+
+    @Test
+    void cancelled() throws InterruptedException {
+        hold();
+        final CompactionTask task = scheduler.start(splits());
+        task.cancel();
+        released.countDown();
+        task.await();
+        assertEquals(CompactionTask.State.CANCELLED, task.state());
+        assertEquals(0.0, task.progress());
+    }
+
+    @Test
+    void closeCancels() throws InterruptedException {
+        hold();
+        final CompactionTask task = scheduler.start(splits());
+        released.countDown();
+        scheduler.close();
+        task.await();
+        // Cancelled unless all the ranges got compacted before the close
+        assertTrue(task.state() == CompactionTask.State.CANCELLED || task.state() == CompactionTask.State.DONE);
+    }
+
+    @Test
+    void failed() throws InterruptedException {
+        // A missing split key fails the compaction with an unchecked exception
+        final CompactionTask task = scheduler.start(Collections.singletonList(null));
+        task.await();
+        assertEquals(CompactionTask.State.FAILED, task.state());
+
+        // And does not block the next one
+        final CompactionTask next = scheduler.start(splits());
+        assertNotSame(task, next);
+        next.await();
+        assertEquals(CompactionTask.State.DONE, next.state());
+    }
+}
@@ -0,0 +1,210 @@
+package ru.mail.polis.dao.impl;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.dao.Mutation;
+import ru.mail.polis.dao.WriteStalledException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link GroupCommit} with the first write held until the followers queue up behind it.
+ */
+class GroupCommitTest {
+    private static final Duration TIMEOUT = Duration.ofMinutes(1);
+
+    /**
+     * Mutation sizes of the writes in order.
+     */
+    private final List<Integer> writes = Collections.synchronizedList(new ArrayList<>());
+    private final CountDownLatch firstWrite = new CountDownLatch(1);
+    private final CountDownLatch released = new CountDownLatch(1);
+
+    /**
+     * Records the writes holding the first one, the next ones fail with the failure if given.
+     */
+    @NotNull
+    private GroupCommit.Writer writer(@Nullable final Exception failure) {
+        return mutations -> {
+            writes.add(mutations.size());
+            if (writes.size() == 1) {
+                firstWrite.countDown();
+                try {
+                    released.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted", e);
+                }
+                return;
+            }
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            }
+            if (failure != null) {
+                throw (RuntimeException) failure;
+            }
+        };
+    }
+
+    @NotNull
+    private static List<Mutation> batch(final int size) {
+        final List<Mutation> batch = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            final ByteBuffer key = ByteBuffer.wrap(("key" + i).getBytes(StandardCharsets.UTF_8));
+            batch.add(Mutation.upsert(key, key.duplicate()));
+        }
+        return batch;
+    }
+
+    /**
+     * Commits the batch of the leader and the followers queued up behind it.
+     *
+     * @return the failures of the followers by number, {@code null} for the successful ones
+     */
+    @NotNull
+    private AtomicReferenceArray<Throwable> commit(
+            @NotNull final GroupCommit commit,
+            final int followers,
+            final int batchSize) throws InterruptedException {
+        final Thread leader = new Thread(() -> {
+            try {
+                commit.commit(batch(1));
+            } catch (IOException ignored) {
+                // The first write succeeds
+            }
+        });
+        leader.start();
+        firstWrite.await();
+
+        final AtomicReferenceArray<Throwable> failures = new AtomicReferenceArray<>(followers);
+        final List<Thread> threads = new ArrayList<>(followers);
+        for (int i = 0; i < followers; i++) {
+            final int number = i;
+            final Thread thread = new Thread(() -> {
+                try {
+                    commit.commit(batch(batchSize));
+                } catch (IOException e) {
+                    failures.set(number, e);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        // Queued behind the leader
+        while (commit.queued() < followers + 1) {
+            Thread.yield();
+        }
+
+        released.countDown();
+        leader.join();
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        return failures;
+    }
+
+    @Test
+    void groupsQueuedCommits() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final GroupCommit commit = new GroupCommit(writer(null), 1024);
+            final AtomicReferenceArray<Throwable> failures = commit(commit, 8, 3);
+
+            // The leader alone, then all the followers at once
+            assertEquals(List.of(1, 8 * 3), writes);
+            assertEquals(2, commit.groups());
+            assertEquals(9, commit.commits());
+            for (int i = 0; i < failures.length(); i++) {
+                assertNull(failures.get(i));
+            }
+        });
+    }
+
+    @Test
+    void splitsLargeGroups() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final GroupCommit commit = new GroupCommit(writer(null), 4);
+            commit(commit, 5, 2);
+
+            assertEquals(List.of(1, 4, 4, 2), writes);
+            assertEquals(4, commit.groups());
+            assertEquals(6, commit.commits());
+        });
+    }
+
+    @Test
+    void oversizedBatchAlone() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final GroupCommit commit = new GroupCommit(writer(null), 4);
+            commit(commit, 2, 10);
+
+            // A batch larger than the limit is still written, just without company
+            assertEquals(List.of(1, 10, 10), writes);
+        });
+    }
+
+    @Test
+    void stallFansOut() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final WriteStalledException stall = new WriteStalledException("Stalled");
+            final AtomicReferenceArray<Throwable> failures =
+                    commit(new GroupCommit(writer(stall), 1024), 4, 1);
+
+            assertEquals(List.of(1, 4), writes);
+            for (int i = 0; i < failures.length(); i++) {
+                final Throwable failure = failures.get(i);
+                assertTrue(failure instanceof WriteStalledException);
+                // The leader rethrows the failure as is, the rest get it wrapped
+                assertTrue(failure == stall || failure.getCause() == stall);
+            }
+        });
+    }
+
+    @Test
+    void failureFansOut() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final IOException broken = new IOException("Broken");
+            final AtomicReferenceArray<Throwable> failures =
+                    commit(new GroupCommit(writer(broken), 1024), 4, 1);
+
+            for (int i = 0; i < failures.length(); i++) {
+                final Throwable failure = failures.get(i);
+                assertTrue(failure instanceof IOException);
+                assertTrue(!(failure instanceof WriteStalledException));
+                assertTrue(failure == broken || failure.getCause() == broken);
+            }
+        });
+    }
+
+    @Test
+    void runtimeFailureFansOut() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final IllegalStateException broken = new IllegalStateException("Broken");
+            final AtomicReferenceArray<Throwable> failures =
+                    commit(new GroupCommit(writer(broken), 1024), 4, 1);
+
+            for (int i = 0; i < failures.length(); i++) {
+                Throwable cause = failures.get(i);
+                assertTrue(cause instanceof IOException);
+                while (cause.getCause() != null) {
+                    cause = cause.getCause();
+                }
+                assertSame(broken, cause);
+            }
+        });
+    }
+}
@@ -0,0 +1,280 @@
+package ru.mail.polis.dao.impl;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.dao.Cursor;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link ParallelScanCursor} over an in-memory source.
+ */
+class ParallelScanCursorTest {
+    private static final int RECORDS = 10_000;
+    private static final Duration TIMEOUT = Duration.ofMinutes(1);
+
+    private final NavigableMap<ByteBuffer, ByteBuffer> records = new TreeMap<>();
+
+    ParallelScanCursorTest() {
+        for (int i = 0; i < RECORDS; i++) {
+            records.put(key(i), key(-i));
+        }
+    }
+
+    @Test
+    void orderedAcrossSplits() {
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            final TestSource source = new TestSource(-1);
+            // The sub-ranges hold several batches each but one holding a single record
+            final List<ByteBuffer> splits = List.of(key(1_000), key(1_001), key(3_500), key(9_000));
+            try (Cursor cursor = new ParallelScanCursor(source, pool, key(17), key(9_990), splits)) {
+                final Iterator<Map.Entry<ByteBuffer, ByteBuffer>> expected =
+                        records.subMap(key(17), key(9_990)).entrySet().iterator();
+                while (expected.hasNext()) {
+                    final Map.Entry<ByteBuffer, ByteBuffer> entry = expected.next();
+                    assertTrue(cursor.advance());
+                    assertEquals(entry.getKey(), cursor.key());
+                    assertEquals(entry.getValue(), cursor.value());
+                }
+                assertFalse(cursor.advance());
+                assertFalse(cursor.advance());
+            }
+            assertEquals(5, source.opened.get());
+            assertEquals(0, source.open.get());
+            assertTrue(source.closed.get());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void closeMidStream() {
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            final TestSource source = new TestSource(-1);
+            final List<ByteBuffer> splits = List.of(key(2_500), key(5_000), key(7_500));
+            final Cursor cursor = new ParallelScanCursor(source, pool, key(0), null, splits);
+            for (int i = 0; i < 10; i++) {
+                assertTrue(cursor.advance());
+                assertEquals(key(i), cursor.key());
+            }
+            // The producers are blocked on the full queues
+            cursor.close();
+            assertEquals(0, source.open.get());
+            assertTrue(source.closed.get());
+            assertFalse(cursor.advance());
+            cursor.close();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void failurePropagates() {
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            final TestSource source = new TestSource(6_000);
+            final List<ByteBuffer> splits = List.of(key(2_500), key(5_000), key(7_500));
+            try (Cursor cursor = new ParallelScanCursor(source, pool, key(0), null, splits)) {
+                // The records of the sub-ranges before the failed one come in full
+                for (int i = 0; i < 5_000; i++) {
+                    assertTrue(cursor.advance());
+                    assertEquals(key(i), cursor.key());
+                }
+                final IllegalStateException failure = assertThrows(IllegalStateException.class, () -> {
+                    while (cursor.advance()) {
+                        assertTrue(number(cursor.key()) < 6_000);
+                    }
+                });
+                assertEquals("Broken", failure.getCause().getMessage());
+                assertFalse(cursor.advance());
+            }
+            assertEquals(0, source.open.get());
+            assertTrue(source.closed.get());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void errorPropagates() {
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            final TestSource source = new TestSource(6_000, true, 0);
+            final List<ByteBuffer> splits = List.of(key(2_500), key(5_000), key(7_500));
+            assertTimeoutPreemptively(TIMEOUT, () -> {
+                try (Cursor cursor = new ParallelScanCursor(source, pool, key(0), null, splits)) {
+                    final IllegalStateException failure = assertThrows(IllegalStateException.class, () -> {
+                        while (cursor.advance()) {
+                            assertTrue(number(cursor.key()) < 6_000);
+                        }
+                    });
+                    assertTrue(failure.getCause() instanceof OutOfMemoryError);
+                    assertFalse(cursor.advance());
+                }
+            });
+            assertEquals(0, source.open.get());
+            assertTrue(source.closed.get());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void readAheadBounded() {
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            final int valueSize = 1024;
+            final long budget = 64 * valueSize;
+            final TestSource source = new TestSource(-1, false, valueSize);
+            // Many sub-ranges each reading ahead a full queue would take several budgets
+            final List<ByteBuffer> splits = new ArrayList<>();
+            for (int i = 625; i < RECORDS; i += 625) {
+                splits.add(key(i));
+            }
+            assertTimeoutPreemptively(TIMEOUT, () -> {
+                try (ParallelScanCursor cursor =
+                             new ParallelScanCursor(source, pool, key(0), null, splits, budget)) {
+                    assertTrue(cursor.advance());
+                    long max = 0;
+                    for (int i = 0; i < 100; i++) {
+                        max = Math.max(max, cursor.bufferedBytes());
+                        Thread.sleep(5);
+                    }
+                    // The budget, the queue of the current sub-range and the batch being read
+                    assertTrue(max > 0);
+                    assertTrue(max <= 2 * budget, "Read ahead: " + max);
+
+                    int read = 1;
+                    while (cursor.advance()) {
+                        assertEquals(key(read), cursor.key());
+                        assertEquals(valueSize, cursor.value().remaining());
+                        read++;
+                    }
+                    assertEquals(RECORDS, read);
+                    assertEquals(0, cursor.bufferedBytes());
+                }
+            });
+            assertEquals(0, source.open.get());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Decimal keys sort the same way as the numbers.
+     */
+    @NotNull
+    private static ByteBuffer key(final int value) {
+        return ByteBuffer.wrap(String.format("%05d", value).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static int number(@NotNull final ByteBuffer key) {
+        return Integer.parseInt(StandardCharsets.US_ASCII.decode(key.duplicate()).toString());
+    }
+
+    /**
+     * Serves the records map tracking the cursors, the one reaching the broken key fails.
+     */
+    private final class TestSource implements ParallelScanCursor.Source {
+        private final int broken;
+        private final boolean fatal;
+        @Nullable
+        private final ByteBuffer filler;
+        private final AtomicInteger opened = new AtomicInteger();
+        private final AtomicInteger open = new AtomicInteger();
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        TestSource(final int broken) {
+            this(broken, false, 0);
+        }
+
+        /**
+         * @param fatal     whether the broken key fails with an {@link Error}
+         * @param valueSize size of the values served instead of the mapped ones, zero for the mapped ones
+         */
+        TestSource(
+                final int broken,
+                final boolean fatal,
+                final int valueSize) {
+            this.broken = broken;
+            this.fatal = fatal;
+            this.filler = valueSize == 0 ? null : ByteBuffer.allocate(valueSize).asReadOnlyBuffer();
+        }
+
+        @NotNull
+        @Override
+        public Cursor open(
+                @NotNull final ByteBuffer from,
+                @Nullable final ByteBuffer to) {
+            assertFalse(closed.get());
+            opened.incrementAndGet();
+            open.incrementAndGet();
+            final NavigableMap<ByteBuffer, ByteBuffer> range = to == null
+                    ? records.tailMap(from, true)
+                    : records.subMap(from, true, to, false);
+            final Iterator<Map.Entry<ByteBuffer, ByteBuffer>> entries = new ArrayList<>(range.entrySet()).iterator();
+            return new Cursor() {
+                private Map.Entry<ByteBuffer, ByteBuffer> current;
+                private boolean released;
+
+                @Override
+                public boolean advance() {
+                    current = entries.hasNext() ? entries.next() : null;
+                    if (current != null && number(current.getKey()) == broken) {
+                        if (fatal) {
+                            throw new OutOfMemoryError("Broken");
+                        }
+                        throw new IllegalStateException("Broken");
+                    }
+                    return current != null;
+                }
+
+                @NotNull
+                @Override
+                public ByteBuffer key() {
+                    return current.getKey();
+                }
+
+                @NotNull
+                @Override
+                public ByteBuffer value() {
+                    return filler == null ? current.getValue() : filler.duplicate();
+                }
+
+                @Override
+                public void close() {
+                    if (!released) {
+                        released = true;
+                        open.decrementAndGet();
+                    }
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+            assertEquals(0, open.get());
+            closed.set(true);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package ru.mail.polis.service;
+
+import one.nio.http.HttpClient;
+import one.nio.http.Response;
+import one.nio.net.ConnectionString;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.Files;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.DAOFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for the background compaction admin API.
+ */
+class AdminCompactTest extends TestBase {
+    private static final Duration TIMEOUT = Duration.ofMinutes(1);
+    private static final String COMPACT = "/v0/admin/compact";
+    private File data;
+    private DAO dao;
+    private Service storage;
+    private HttpClient client;
+
+    @BeforeEach
+    void beforeEach() throws Exception {
+        final int port = randomPort();
+        data = Files.createTempDirectory();
+        dao = DAOFactory.create(data);
+        storage = ServiceFactory.create(port, dao, Collections.singleton(endpoint(port)));
+        storage.start();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(1));
+        client = new HttpClient(new ConnectionString(endpoint(port) + "?timeout=" + (TIMEOUT.toMillis() / 2)));
+    }
+
+    @AfterEach
+    void afterEach() throws IOException {
+        client.close();
+        storage.stop();
+        dao.close();
+        Files.recursiveDelete(data);
+    }
+
+    private void fill() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            assertEquals(201, client.put("/v0/entity?id=key" + i, randomValue()).getStatus());
+        }
+    }
+
+    @NotNull
+    private static String state(@NotNull final Response response) {
+        final String body = new String(response.getBody(), StandardCharsets.UTF_8);
+        assertTrue(body.startsWith("state "));
+        assertTrue(body.contains("\nprogress "));
+        return body.substring("state ".length(), body.indexOf('\n'));
+    }
+
+    /**
+     * Polls the status until the compaction finishes.
+     */
+    @NotNull
+    private Response finished() throws Exception {
+        while (true) {
+            final Response response = client.get(COMPACT);
+            assertEquals(200, response.getStatus());
+            if (!"RUNNING".equals(state(response))) {
+                return response;
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void noCompaction() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            assertEquals(404, client.get(COMPACT).getStatus());
+            assertEquals(404, client.delete(COMPACT).getStatus());
+            assertEquals(405, client.put(COMPACT, new byte[0]).getStatus());
+        });
+    }
+
+    @Test
+    void start() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            fill();
+
+            final Response started = client.post(COMPACT, new byte[0]);
+            assertEquals(202, started.getStatus());
+            final String state = state(started);
+            assertTrue("RUNNING".equals(state) || "DONE".equals(state));
+
+            final Response done = finished();
+            assertEquals("DONE", state(done));
+            assertTrue(new String(done.getBody(), StandardCharsets.UTF_8).contains("\nprogress 1.0\n"));
+
+            // The records survive
+            assertEquals(200, client.get("/v0/entity?id=key0").getStatus());
+        });
+    }
+
+    @Test
+    void cancel() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            fill();
+
+            assertEquals(202, client.post(COMPACT, new byte[0]).getStatus());
+            final Response cancelled = client.delete(COMPACT);
+            assertEquals(202, cancelled.getStatus());
+            state(cancelled);
+
+            // Cancelled unless it is finished before the request
+            final String state = state(finished());
+            assertTrue("CANCELLED".equals(state) || "DONE".equals(state));
+
+            // Another compaction may start afterwards
+            assertEquals(202, client.post(COMPACT, new byte[0]).getStatus());
+            assertEquals("DONE", state(finished()));
+        });
+    }
+}
@@ -0,0 +1,152 @@
+package ru.mail.polis.service;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.Files;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.DAOFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for the compressed range streams spanning many chunks.
+ */
+class CompressionTest extends TestBase {
+    private static final Duration TIMEOUT = Duration.ofMinutes(1);
+    private static final int RECORDS = 2_000;
+    private static final String RANGE = "/v0/entities?start=key";
+    private int port;
+    private File data;
+    private DAO dao;
+    private Service storage;
+
+    @BeforeEach
+    void beforeEach() throws Exception {
+        port = randomPort();
+        data = Files.createTempDirectory();
+        dao = DAOFactory.create(data);
+        // Incompressible values alternate with repetitive ones
+        for (int i = 0; i < RECORDS; i++) {
+            final byte[] value = new byte[1024];
+            if (i % 2 == 0) {
+                ThreadLocalRandom.current().nextBytes(value);
+            } else {
+                Arrays.fill(value, (byte) i);
+            }
+            dao.upsert(ByteBuffer.wrap(String.format("key%05d", i).getBytes(StandardCharsets.UTF_8)),
+                    ByteBuffer.wrap(value));
+        }
+        storage = ServiceFactory.create(port, dao, Collections.singleton(endpoint(port)));
+        storage.start();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(1));
+    }
+
+    @AfterEach
+    void afterEach() throws IOException {
+        storage.stop();
+        dao.close();
+        Files.recursiveDelete(data);
+    }
+
+    @NotNull
+    private static byte[] gunzip(@NotNull final byte[] body) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+            return in.readAllBytes();
+        }
+    }
+
+    @NotNull
+    private static byte[] inflate(@NotNull final byte[] body) throws IOException {
+        try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(body))) {
+            return in.readAllBytes();
+        }
+    }
+
+    @NotNull
+    private RawHttpClient.Response range(
+            @NotNull final RawHttpClient client,
+            @Nullable final String acceptEncoding) throws IOException {
+        final RawHttpClient.Response response = acceptEncoding == null
+                ? client.get(RANGE)
+                : client.get(RANGE, "Accept-Encoding: " + acceptEncoding);
+        assertEquals(200, response.getStatus());
+        assertEquals("Accept, Accept-Encoding", response.getHeader("Vary"));
+        return response;
+    }
+
+    @Test
+    void gzip() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            try (RawHttpClient client = new RawHttpClient(port, TIMEOUT)) {
+                final byte[] expected = range(client, null).getBody();
+
+                final RawHttpClient.Response response = range(client, "gzip");
+                assertEquals("gzip", response.getHeader("Content-Encoding"));
+                assertTrue(response.getChunks() > 2);
+                assertArrayEquals(expected, gunzip(response.getBody()));
+            }
+        });
+    }
+
+    @Test
+    void deflate() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            try (RawHttpClient client = new RawHttpClient(port, TIMEOUT)) {
+                final byte[] expected = range(client, null).getBody();
+
+                final RawHttpClient.Response response = range(client, "deflate");
+                assertEquals("deflate", response.getHeader("Content-Encoding"));
+                assertTrue(response.getChunks() > 2);
+                assertArrayEquals(expected, inflate(response.getBody()));
+            }
+        });
+    }
+
+    @Test
+    void notAccepted() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            try (RawHttpClient client = new RawHttpClient(port, TIMEOUT)) {
+                final byte[] expected = range(client, null).getBody();
+                assertEquals(RECORDS * (8 + 1 + 1024), expected.length);
+
+                // Rejected codings are skipped
+                RawHttpClient.Response response = range(client, "gzip;q=0, deflate");
+                assertEquals("deflate", response.getHeader("Content-Encoding"));
+                assertArrayEquals(expected, inflate(response.getBody()));
+
+                for (final String rejected : new String[]{"gzip;q=0", "gzip; q=0.0, deflate;q=0", "br"}) {
+                    response = range(client, rejected);
+                    assertNull(response.getHeader("Content-Encoding"), rejected);
+                    assertArrayEquals(expected, response.getBody(), rejected);
+                }
+
+                // Gzip is preferred whatever the weights
+                response = range(client, "deflate, gzip;q=0.5");
+                assertEquals("gzip", response.getHeader("Content-Encoding"));
+                assertArrayEquals(expected, gunzip(response.getBody()));
+            }
+        });
+    }
+}
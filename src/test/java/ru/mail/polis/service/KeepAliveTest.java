@@ -0,0 +1,152 @@
+package ru.mail.polis.service;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.Files;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.DAOFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for the zero copy single value responses over persistent and pipelined connections.
+ */
+class KeepAliveTest extends TestBase {
+    private static final Duration TIMEOUT = Duration.ofMinutes(1);
+    private int port;
+    private File data;
+    private DAO dao;
+    private Service storage;
+
+    @BeforeEach
+    void beforeEach() throws Exception {
+        port = randomPort();
+        data = Files.createTempDirectory();
+        dao = DAOFactory.create(data);
+        storage = ServiceFactory.create(port, dao, Collections.singleton(endpoint(port)));
+        storage.start();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(1));
+    }
+
+    @AfterEach
+    void afterEach() throws IOException {
+        storage.stop();
+        dao.close();
+        Files.recursiveDelete(data);
+    }
+
+    @NotNull
+    private static String get(
+            @NotNull final String key,
+            @NotNull final String... headers) {
+        return RawHttpClient.request("GET", "/v0/entity?id=" + key, headers);
+    }
+
+    private static void assertValue(
+            @NotNull final String expected,
+            @NotNull final RawHttpClient.Response response) {
+        assertEquals(200, response.getStatus());
+        assertEquals(String.valueOf(expected.length()), response.getHeader("Content-Length"));
+        assertArrayEquals(expected.getBytes(StandardCharsets.ISO_8859_1), response.getBody());
+    }
+
+    @Test
+    void keepAlive() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            try (RawHttpClient client = new RawHttpClient(port, TIMEOUT)) {
+                client.send(RawHttpClient.put("k1", "v1"), RawHttpClient.put("k2", ""));
+                assertEquals(201, client.read().getStatus());
+                assertEquals(201, client.read().getStatus());
+
+                for (int i = 0; i < 3; i++) {
+                    final RawHttpClient.Response first = client.get("/v0/entity?id=k1");
+                    assertValue("v1", first);
+                    assertEquals("Keep-Alive", first.getHeader("Connection"));
+                    assertValue("", client.get("/v0/entity?id=k2"));
+                }
+                assertEquals(404, client.get("/v0/entity?id=absent").getStatus());
+                assertValue("v1", client.get("/v0/entity?id=k1"));
+            }
+        });
+    }
+
+    @Test
+    void pipelined() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            // Larger than the socket buffers, so the body stays queued in the session
+            final String large = largeValue(4 * 1024 * 1024);
+            try (RawHttpClient client = new RawHttpClient(port, TIMEOUT)) {
+                client.send(RawHttpClient.put("small", "v"), RawHttpClient.put("large", large));
+                assertEquals(201, client.read().getStatus());
+                assertEquals(201, client.read().getStatus());
+
+                client.send(get("large"), get("small"), get("absent"), get("large"), get("small"));
+                assertValue(large, client.read());
+                assertValue("v", client.read());
+                assertEquals(404, client.read().getStatus());
+                assertValue(large, client.read());
+                assertValue("v", client.read());
+            }
+        });
+    }
+
+    @Test
+    void pipelinedUntilClose() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            try (RawHttpClient client = new RawHttpClient(port, TIMEOUT)) {
+                client.send(RawHttpClient.put("k", "v"));
+                assertEquals(201, client.read().getStatus());
+
+                client.send(get("k"), get("k", "Connection: close"), get("k"));
+                assertValue("v", client.read());
+                final RawHttpClient.Response last = client.read();
+                assertValue("v", last);
+                assertEquals("close", last.getHeader("Connection"));
+                assertTrue(client.isClosedByServer());
+            }
+        });
+    }
+
+    @Test
+    void http10() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            try (RawHttpClient client = new RawHttpClient(port, TIMEOUT)) {
+                client.send(RawHttpClient.put("k", "v"));
+                assertEquals(201, client.read().getStatus());
+
+                client.send("GET /v0/entity?id=k HTTP/1.0\r\nConnection: Keep-Alive\r\n\r\n");
+                final RawHttpClient.Response persistent = client.read();
+                assertValue("v", persistent);
+                assertEquals("Keep-Alive", persistent.getHeader("Connection"));
+
+                client.send("GET /v0/entity?id=k HTTP/1.0\r\n\r\n");
+                final RawHttpClient.Response closing = client.read();
+                assertValue("v", closing);
+                assertEquals("close", closing.getHeader("Connection"));
+                assertTrue(client.isClosedByServer());
+            }
+        });
+    }
+
+    @NotNull
+    private static String largeValue(final int length) {
+        final byte[] value = new byte[length];
+        for (int i = 0; i < length; i++) {
+            value[i] = (byte) ('a' + i * 31 % 26);
+        }
+        return new String(value, StandardCharsets.ISO_8859_1);
+    }
+}
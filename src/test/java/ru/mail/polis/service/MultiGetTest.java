@@ -0,0 +1,93 @@
+package ru.mail.polis.service;
+
+import one.nio.http.HttpClient;
+import one.nio.http.Response;
+import one.nio.net.ConnectionString;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.Files;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.DAOFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+/**
+ * Unit tests for single node multi-get API.
+ */
+class MultiGetTest extends TestBase {
+    private static final Duration TIMEOUT = Duration.ofMinutes(1);
+    private File data;
+    private DAO dao;
+    private Service storage;
+    private HttpClient client;
+
+    @BeforeEach
+    void beforeEach() throws Exception {
+        final int port = randomPort();
+        data = Files.createTempDirectory();
+        dao = DAOFactory.create(data);
+        storage = ServiceFactory.create(port, dao, Collections.singleton(endpoint(port)));
+        storage.start();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(1));
+        client = new HttpClient(new ConnectionString(endpoint(port) + "?timeout=" + (TIMEOUT.toMillis() / 2)));
+    }
+
+    @AfterEach
+    void afterEach() throws IOException {
+        client.close();
+        storage.stop();
+        dao.close();
+        Files.recursiveDelete(data);
+    }
+
+    private Response upsert(
+            @NotNull final String key,
+            @NotNull final String value) throws Exception {
+        return client.put("/v0/entity?id=" + key, value.getBytes());
+    }
+
+    private Response getAll(@NotNull final String body) throws Exception {
+        return client.post("/v0/entities/get", body.getBytes());
+    }
+
+    @Test
+    void noKeys() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            assertEquals(400, getAll("").getStatus());
+            assertEquals(405, client.get("/v0/entities/get").getStatus());
+        });
+    }
+
+    @Test
+    void foundInRequestOrder() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            assertEquals(201, upsert("k1", "v1").getStatus());
+            assertEquals(201, upsert("k2", "").getStatus());
+            assertEquals(201, upsert("k3", "v3").getStatus());
+
+            final Response response = getAll("k3\nabsent\nk1\nk2");
+            assertEquals(200, response.getStatus());
+            assertArrayEquals("k3\nv3k1\nv1k2\n".getBytes(), response.getBody());
+        });
+    }
+
+    @Test
+    void nothingFound() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final Response response = getAll("absent1\nabsent2\n");
+            assertEquals(200, response.getStatus());
+            assertEquals(0, response.getBody().length);
+        });
+    }
+}
@@ -0,0 +1,183 @@
+package ru.mail.polis.service;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.Files;
+import ru.mail.polis.Record;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.dao.CloseableIterator;
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.DAOFactory;
+import ru.mail.polis.service.impl.AsyncHttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for the requests shed by a single worker with a single place in the queue.
+ */
+class OverloadTest extends TestBase {
+    private static final Duration TIMEOUT = Duration.ofMinutes(1);
+    /**
+     * Longer than the default queue deadline.
+     */
+    private static final long EXPIRING_MILLIS = 1_500;
+    private int port;
+    private File data;
+    private BlockingDAO dao;
+    private ThreadPoolExecutor workers;
+    private Service storage;
+
+    @BeforeEach
+    void beforeEach() throws Exception {
+        port = randomPort();
+        data = Files.createTempDirectory();
+        dao = new BlockingDAO(DAOFactory.create(data));
+        workers = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1));
+        storage = new AsyncHttpServer(port, dao, workers);
+        storage.start();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(1));
+    }
+
+    @AfterEach
+    void afterEach() throws IOException {
+        dao.released.countDown();
+        storage.stop();
+        workers.shutdownNow();
+        dao.close();
+        Files.recursiveDelete(data);
+    }
+
+    @NotNull
+    private static String get(@NotNull final String key) {
+        return RawHttpClient.request("GET", "/v0/entity?id=" + key);
+    }
+
+    @NotNull
+    private static String stats(@NotNull final RawHttpClient client) throws IOException {
+        final RawHttpClient.Response response = client.get("/v0/stats");
+        assertEquals(200, response.getStatus());
+        return new String(response.getBody(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void rejected() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            try (RawHttpClient busy = new RawHttpClient(port, TIMEOUT);
+                 RawHttpClient queued = new RawHttpClient(port, TIMEOUT);
+                 RawHttpClient rejected = new RawHttpClient(port, TIMEOUT);
+                 RawHttpClient admin = new RawHttpClient(port, TIMEOUT)) {
+                busy.send(get("k1"));
+                dao.entered.await();
+                queued.send(get("k2"));
+                // The queue is full now
+                while (workers.getQueue().isEmpty()) {
+                    Thread.yield();
+                }
+
+                RawHttpClient.assertRetryLater(rejected.get("/v0/entity?id=k3"));
+
+                // Served while the workers are saturated
+                final String stats = stats(admin);
+                assertTrue(stats.contains("queue.depth 1\n"), stats);
+                assertTrue(stats.contains("queue.rejected 1\n"), stats);
+                assertTrue(stats.contains("queue.expired 0\n"), stats);
+
+                dao.released.countDown();
+                assertEquals(404, busy.read().getStatus());
+                assertEquals(404, queued.read().getStatus());
+                assertEquals(404, rejected.get("/v0/entity?id=k3").getStatus());
+            }
+        });
+    }
+
+    @Test
+    void expired() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            try (RawHttpClient busy = new RawHttpClient(port, TIMEOUT);
+                 RawHttpClient queued = new RawHttpClient(port, TIMEOUT);
+                 RawHttpClient admin = new RawHttpClient(port, TIMEOUT)) {
+                busy.send(get("k1"));
+                dao.entered.await();
+                queued.send(get("k2"));
+                while (workers.getQueue().isEmpty()) {
+                    Thread.yield();
+                }
+
+                // Waits in the queue past the deadline
+                Thread.sleep(EXPIRING_MILLIS);
+                dao.released.countDown();
+                assertEquals(404, busy.read().getStatus());
+                RawHttpClient.assertRetryLater(queued.read());
+                // The expired request has not touched the storage
+                assertEquals(1, dao.reads.get());
+
+                final String stats = stats(admin);
+                assertTrue(stats.contains("queue.expired 1\n"), stats);
+                assertTrue(stats.contains("queue.rejected 0\n"), stats);
+
+                // The fresh requests are served
+                assertEquals(404, queued.get("/v0/entity?id=k2").getStatus());
+            }
+        });
+    }
+
+    /**
+     * Holds the first read until released.
+     */
+    private static final class BlockingDAO implements DAO {
+        private final DAO delegate;
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch released = new CountDownLatch(1);
+        private final AtomicInteger reads = new AtomicInteger();
+
+        BlockingDAO(@NotNull final DAO delegate) {
+            this.delegate = delegate;
+        }
+
+        @NotNull
+        @Override
+        public CloseableIterator<Record> iterator(@NotNull final ByteBuffer from) throws IOException {
+            reads.incrementAndGet();
+            entered.countDown();
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted", e);
+            }
+            return delegate.iterator(from);
+        }
+
+        @Override
+        public void upsert(
+                @NotNull final ByteBuffer key,
+                @NotNull final ByteBuffer value) throws IOException {
+            delegate.upsert(key, value);
+        }
+
+        @Override
+        public void remove(@NotNull final ByteBuffer key) throws IOException {
+            delegate.remove(key);
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+}
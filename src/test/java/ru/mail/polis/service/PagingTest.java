@@ -0,0 +1,168 @@
+package ru.mail.polis.service;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.Files;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.DAOFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+/**
+ * Unit tests for the range pages resumed with the continuation tokens sent as trailers.
+ */
+class PagingTest extends TestBase {
+    private static final Duration TIMEOUT = Duration.ofMinutes(1);
+    private static final String CONTINUATION = "X-Continuation";
+    private static final int RECORDS = 10;
+    private int port;
+    private File data;
+    private DAO dao;
+    private Service storage;
+
+    @BeforeEach
+    void beforeEach() throws Exception {
+        port = randomPort();
+        data = Files.createTempDirectory();
+        dao = DAOFactory.create(data);
+        storage = ServiceFactory.create(port, dao, Collections.singleton(endpoint(port)));
+        storage.start();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(1));
+    }
+
+    @AfterEach
+    void afterEach() throws IOException {
+        storage.stop();
+        dao.close();
+        Files.recursiveDelete(data);
+    }
+
+    @NotNull
+    private static String key(final int i) {
+        return "page" + i;
+    }
+
+    @NotNull
+    private static String chunkOf(final int i) {
+        return key(i) + '\n' + "value" + i;
+    }
+
+    private void fill(@NotNull final RawHttpClient client) throws IOException {
+        for (int i = 0; i < RECORDS; i++) {
+            final String value = "value" + i;
+            client.send(RawHttpClient.request("PUT", "/v0/entity?id=" + key(i), "Content-Length: " + value.length())
+                    + value);
+            assertEquals(201, client.read().getStatus());
+        }
+    }
+
+    @NotNull
+    private static String body(@NotNull final RawHttpClient.Response response) {
+        assertEquals(200, response.getStatus());
+        return new String(response.getBody(), StandardCharsets.UTF_8);
+    }
+
+    @NotNull
+    private static String range(
+            @NotNull final String order,
+            final int limit,
+            @Nullable final String continuation) {
+        return "/v0/entities?start=" + key(0) + "&order=" + order + "&limit=" + limit
+                + (continuation == null ? "" : "&continuation=" + continuation);
+    }
+
+    @Test
+    void ascendingPages() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            try (RawHttpClient client = new RawHttpClient(port, TIMEOUT)) {
+                fill(client);
+
+                RawHttpClient.Response page = client.get(range("asc", 4, null));
+                assertEquals(chunkOf(0) + chunkOf(1) + chunkOf(2) + chunkOf(3), body(page));
+                assertEquals(CONTINUATION, page.getHeader("Trailer"));
+                String token = page.getTrailer(CONTINUATION);
+                assertNotNull(token);
+
+                page = client.get(range("asc", 4, token));
+                assertEquals(chunkOf(4) + chunkOf(5) + chunkOf(6) + chunkOf(7), body(page));
+                token = page.getTrailer(CONTINUATION);
+                assertNotNull(token);
+
+                // The last page is not followed by a token
+                page = client.get(range("asc", 4, token));
+                assertEquals(chunkOf(8) + chunkOf(9), body(page));
+                assertNull(page.getTrailer(CONTINUATION));
+            }
+        });
+    }
+
+    @Test
+    void descendingPages() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            try (RawHttpClient client = new RawHttpClient(port, TIMEOUT)) {
+                fill(client);
+
+                RawHttpClient.Response page = client.get(range("desc", 5, null));
+                assertEquals(chunkOf(9) + chunkOf(8) + chunkOf(7) + chunkOf(6) + chunkOf(5), body(page));
+                final String token = page.getTrailer(CONTINUATION);
+                assertNotNull(token);
+
+                // Exactly the limit left, the page ends without a token
+                page = client.get(range("desc", 5, token));
+                assertEquals(chunkOf(4) + chunkOf(3) + chunkOf(2) + chunkOf(1) + chunkOf(0), body(page));
+                assertNull(page.getTrailer(CONTINUATION));
+            }
+        });
+    }
+
+    @Test
+    void unlimited() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            try (RawHttpClient client = new RawHttpClient(port, TIMEOUT)) {
+                fill(client);
+
+                final RawHttpClient.Response response =
+                        client.get("/v0/entities?start=" + key(0) + "&end=" + key(3));
+                assertEquals(chunkOf(0) + chunkOf(1) + chunkOf(2), body(response));
+                assertNull(response.getHeader("Trailer"));
+                assertNull(response.getTrailer(CONTINUATION));
+            }
+        });
+    }
+
+    @Test
+    void badRequest() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            try (RawHttpClient client = new RawHttpClient(port, TIMEOUT)) {
+                fill(client);
+
+                final String ascending = client.get(range("asc", 1, null)).getTrailer(CONTINUATION);
+                assertNotNull(ascending);
+                // A token resumes the scan in its own order only
+                assertEquals(400, client.get(range("desc", 1, ascending)).getStatus());
+
+                final String descending = client.get(range("desc", 1, null)).getTrailer(CONTINUATION);
+                assertNotNull(descending);
+                assertEquals(400, client.get(range("asc", 1, descending)).getStatus());
+
+                assertEquals(400, client.get(range("asc", 1, "!!!")).getStatus());
+                assertEquals(400, client.get(range("asc", 0, null)).getStatus());
+                assertEquals(400, client.get("/v0/entities?start=" + key(0) + "&limit=many").getStatus());
+            }
+        });
+    }
+}
@@ -0,0 +1,252 @@
+package ru.mail.polis.service;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.Files;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.DAOFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+/**
+ * Unit tests for the value parts streamed with {@code projection=} in both formats.
+ */
+class ProjectionTest extends TestBase {
+    private static final Duration TIMEOUT = Duration.ofMinutes(1);
+    private static final String RANGE = "/v0/entities?start=key";
+    private static final String BINARY = "Accept: application/x-records";
+    /**
+     * Lengths around the prefix and the varint boundaries, including an empty value.
+     * Fewer than ten, so the keys sort in the same order.
+     */
+    private static final int[] LENGTHS = {0, 1, 9, 10, 11, 127, 128, 1000, 70_000};
+    private static final int PREFIX = 10;
+    private int port;
+    private File data;
+    private DAO dao;
+    private Service storage;
+
+    @BeforeEach
+    void beforeEach() throws Exception {
+        port = randomPort();
+        data = Files.createTempDirectory();
+        dao = DAOFactory.create(data);
+        for (int i = 0; i < LENGTHS.length; i++) {
+            dao.upsert(ByteBuffer.wrap(key(i)), ByteBuffer.wrap(value(i)));
+        }
+        storage = ServiceFactory.create(port, dao, Collections.singleton(endpoint(port)));
+        storage.start();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(1));
+    }
+
+    @AfterEach
+    void afterEach() throws IOException {
+        storage.stop();
+        dao.close();
+        Files.recursiveDelete(data);
+    }
+
+    @NotNull
+    private static byte[] key(final int i) {
+        return ("key" + i).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @NotNull
+    private static byte[] value(final int i) {
+        final byte[] value = new byte[LENGTHS[i]];
+        for (int j = 0; j < value.length; j++) {
+            value[j] = (byte) ('a' + (i + j) % 26);
+        }
+        return value;
+    }
+
+    @NotNull
+    private static byte[] length(final int i) {
+        return Integer.toString(LENGTHS[i]).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @NotNull
+    private static byte[] prefix(final int i) {
+        return Arrays.copyOf(value(i), Math.min(PREFIX, LENGTHS[i]));
+    }
+
+    @NotNull
+    private static byte[] concat(
+            @NotNull final byte[] key,
+            @NotNull final byte[] value) {
+        final byte[] result = Arrays.copyOf(key, key.length + 1 + value.length);
+        result[key.length] = '\n';
+        System.arraycopy(value, 0, result, key.length + 1, value.length);
+        return result;
+    }
+
+    /**
+     * The text records, one per chunk.
+     */
+    @NotNull
+    private static List<ByteBuffer> text(@NotNull final RawHttpClient.Response response) {
+        assertEquals(200, response.getStatus());
+        final List<ByteBuffer> result = new ArrayList<>();
+        for (final byte[] chunk : response.getChunkBodies()) {
+            result.add(ByteBuffer.wrap(chunk));
+        }
+        return result;
+    }
+
+    /**
+     * The binary records with or without values.
+     *
+     * @return keys and values interleaved unless keys only
+     */
+    @NotNull
+    private static List<ByteBuffer> binary(
+            @NotNull final RawHttpClient.Response response,
+            final boolean values) {
+        assertEquals(200, response.getStatus());
+        final List<ByteBuffer> result = new ArrayList<>();
+        final ByteBuffer batches = ByteBuffer.wrap(response.getBody());
+        for (int length = batches.getInt(); length > 0; length = batches.getInt()) {
+            final int end = batches.position() + length;
+            while (batches.position() < end) {
+                result.add(slice(batches));
+                if (values) {
+                    result.add(slice(batches));
+                }
+            }
+        }
+        assertEquals(0, batches.remaining());
+        return result;
+    }
+
+    @NotNull
+    private static ByteBuffer slice(@NotNull final ByteBuffer src) {
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            final byte b = src.get();
+            length |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                break;
+            }
+        }
+        final ByteBuffer result = src.slice();
+        result.limit(length);
+        src.position(src.position() + length);
+        return result;
+    }
+
+    /**
+     * Text records of the keys followed by the given value parts, or the bare keys.
+     */
+    @NotNull
+    private static List<ByteBuffer> expectedText(@Nullable final Part part) {
+        final List<ByteBuffer> result = new ArrayList<>();
+        for (int i = 0; i < LENGTHS.length; i++) {
+            result.add(ByteBuffer.wrap(part == null ? key(i) : concat(key(i), part.of(i))));
+        }
+        return result;
+    }
+
+    /**
+     * Binary keys interleaved with the given value parts, or the bare keys.
+     */
+    @NotNull
+    private static List<ByteBuffer> expectedBinary(@Nullable final Part part) {
+        final List<ByteBuffer> result = new ArrayList<>();
+        for (int i = 0; i < LENGTHS.length; i++) {
+            result.add(ByteBuffer.wrap(key(i)));
+            if (part != null) {
+                result.add(ByteBuffer.wrap(part.of(i)));
+            }
+        }
+        return result;
+    }
+
+    @FunctionalInterface
+    private interface Part {
+        @NotNull
+        byte[] of(int i);
+    }
+
+    @Test
+    void full() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            try (RawHttpClient client = new RawHttpClient(port, TIMEOUT)) {
+                assertEquals(expectedText(ProjectionTest::value), text(client.get(RANGE + "&projection=full")));
+                assertEquals(text(client.get(RANGE)), text(client.get(RANGE + "&projection=full")));
+                assertEquals(expectedBinary(ProjectionTest::value),
+                        binary(client.get(RANGE + "&projection=full", BINARY), true));
+            }
+        });
+    }
+
+    @Test
+    void keys() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            try (RawHttpClient client = new RawHttpClient(port, TIMEOUT)) {
+                assertEquals(expectedText(null), text(client.get(RANGE + "&projection=keys")));
+                assertEquals(expectedBinary(null), binary(client.get(RANGE + "&projection=keys", BINARY), false));
+            }
+        });
+    }
+
+    @Test
+    void length() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            try (RawHttpClient client = new RawHttpClient(port, TIMEOUT)) {
+                assertEquals(expectedText(ProjectionTest::length), text(client.get(RANGE + "&projection=length")));
+                assertEquals(expectedBinary(ProjectionTest::length),
+                        binary(client.get(RANGE + "&projection=length", BINARY), true));
+            }
+        });
+    }
+
+    @Test
+    void prefix() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            try (RawHttpClient client = new RawHttpClient(port, TIMEOUT)) {
+                final String uri = RANGE + "&projection=prefix&prefix=" + PREFIX;
+                assertEquals(expectedText(ProjectionTest::prefix), text(client.get(uri)));
+                assertEquals(expectedBinary(ProjectionTest::prefix), binary(client.get(uri, BINARY), true));
+
+                // A zero prefix leaves an empty value part
+                assertEquals(expectedText(i -> new byte[0]),
+                        text(client.get(RANGE + "&projection=prefix&prefix=0")));
+            }
+        });
+    }
+
+    @Test
+    void malformed() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            try (RawHttpClient client = new RawHttpClient(port, TIMEOUT)) {
+                for (final String parameters : new String[]{
+                        "&projection=prefix",
+                        "&projection=prefix&prefix=",
+                        "&projection=prefix&prefix=-1",
+                        "&projection=prefix&prefix=ten",
+                        "&projection=prefix&prefix=99999999999",
+                        "&projection=values",
+                        "&projection="}) {
+                    assertEquals(400, client.get(RANGE + parameters).getStatus(), parameters);
+                    assertEquals(400, client.get(RANGE + parameters, BINARY).getStatus(), parameters);
+                }
+            }
+        });
+    }
+}
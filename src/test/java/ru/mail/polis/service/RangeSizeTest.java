@@ -0,0 +1,140 @@
+package ru.mail.polis.service;
+
+import one.nio.http.HttpClient;
+import one.nio.http.Response;
+import one.nio.net.ConnectionString;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.Files;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.DAOFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for single node range size API.
+ */
+class RangeSizeTest extends TestBase {
+    private static final Duration TIMEOUT = Duration.ofMinutes(1);
+    private File data;
+    private DAO dao;
+    private Service storage;
+    private HttpClient client;
+
+    @BeforeEach
+    void beforeEach() throws Exception {
+        final int port = randomPort();
+        data = Files.createTempDirectory();
+        dao = DAOFactory.create(data);
+        storage = ServiceFactory.create(port, dao, Collections.singleton(endpoint(port)));
+        storage.start();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(1));
+        client = new HttpClient(new ConnectionString(endpoint(port) + "?timeout=" + (TIMEOUT.toMillis() / 2)));
+    }
+
+    @AfterEach
+    void afterEach() throws IOException {
+        client.close();
+        storage.stop();
+        dao.close();
+        Files.recursiveDelete(data);
+    }
+
+    private Response upsert(
+            @NotNull final String key,
+            @NotNull final String value) throws Exception {
+        return client.put("/v0/entity?id=" + key, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Requests the size and parses the {@code count} and {@code bytes} lines of the response.
+     */
+    @NotNull
+    private long[] size(@NotNull final String query) throws Exception {
+        final Response response = client.get("/v0/entities/size?" + query);
+        assertEquals(200, response.getStatus());
+        final String[] lines = new String(response.getBody(), StandardCharsets.UTF_8).split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].startsWith("count "));
+        assertTrue(lines[1].startsWith("bytes "));
+        return new long[]{
+                Long.parseLong(lines[0].substring("count ".length())),
+                Long.parseLong(lines[1].substring("bytes ".length()))};
+    }
+
+    @Test
+    void badRequest() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            assertEquals(400, client.get("/v0/entities/size").getStatus());
+            assertEquals(400, client.get("/v0/entities/size?start=").getStatus());
+            assertEquals(405, client.delete("/v0/entities/size?start=a").getStatus());
+        });
+    }
+
+    @Test
+    void empty() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final long[] exact = size("start=a");
+            assertEquals(0, exact[0]);
+            assertEquals(0, exact[1]);
+
+            final long[] approximate = size("start=a&approximate=true");
+            assertEquals(0, approximate[0]);
+            assertEquals(0, approximate[1]);
+        });
+    }
+
+    @Test
+    void exact() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            assertEquals(201, upsert("size1", "v1").getStatus());
+            assertEquals(201, upsert("size2", "").getStatus());
+            assertEquals(201, upsert("size3", "v333").getStatus());
+            assertEquals(201, upsert("other", "value").getStatus());
+
+            // Keys and values
+            long[] size = size("start=size");
+            assertEquals(3, size[0]);
+            assertEquals(3 * 5 + 2 + 4, size[1]);
+
+            size = size("start=size2&end=size3");
+            assertEquals(1, size[0]);
+            assertEquals(5, size[1]);
+
+            assertEquals(202, client.delete("/v0/entity?id=size1").getStatus());
+            size = size("start=size&end=sizf");
+            assertEquals(2, size[0]);
+            assertEquals(2 * 5 + 4, size[1]);
+        });
+    }
+
+    @Test
+    void approximateNotFlushed() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            for (int i = 0; i < 100; i++) {
+                assertEquals(201, upsert("approximate" + i, "value" + i).getStatus());
+            }
+
+            // The writes are still in memory
+            final long[] size = size("start=approximate&approximate=true");
+            assertTrue(size[0] > 0);
+            assertTrue(size[1] > 0);
+
+            final long[] outside = size("start=b&end=c&approximate=true");
+            assertEquals(0, outside[0]);
+            assertEquals(0, outside[1]);
+        });
+    }
+}
@@ -0,0 +1,237 @@
+package ru.mail.polis.service;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Bare HTTP/1.1 client over a single connection for the protocol details the one-nio client hides:
+ * pipelining, connection closes, chunk boundaries, trailers and raw content codings.
+ */
+final class RawHttpClient implements Closeable {
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+
+    RawHttpClient(
+            final int port,
+            @NotNull final Duration timeout) throws IOException {
+        this.socket = new Socket("localhost", port);
+        socket.setSoTimeout((int) timeout.toMillis());
+        this.in = new BufferedInputStream(socket.getInputStream());
+        this.out = socket.getOutputStream();
+    }
+
+    /**
+     * Formats a request without a body.
+     */
+    @NotNull
+    static String request(
+            @NotNull final String method,
+            @NotNull final String uri,
+            @NotNull final String... headers) {
+        final StringBuilder request = new StringBuilder()
+                .append(method).append(' ').append(uri).append(" HTTP/1.1\r\n")
+                .append("Host: localhost\r\n");
+        for (final String header : headers) {
+            request.append(header).append("\r\n");
+        }
+        return request.append("\r\n").toString();
+    }
+
+    /**
+     * Formats an upsert of the value.
+     */
+    @NotNull
+    static String put(
+            @NotNull final String key,
+            @NotNull final String value) {
+        return request("PUT", "/v0/entity?id=" + key, "Content-Length: " + value.length()) + value;
+    }
+
+    /**
+     * Asserts the request has been rejected with a delay to retry after.
+     */
+    static void assertRetryLater(@NotNull final Response response) {
+        assertEquals(503, response.getStatus());
+        final String retryAfter = response.getHeader("Retry-After");
+        assertNotNull(retryAfter);
+        assertTrue(Integer.parseInt(retryAfter) > 0);
+    }
+
+    /**
+     * Sends the raw requests at once, so they get pipelined.
+     */
+    void send(@NotNull final String... requests) throws IOException {
+        for (final String request : requests) {
+            out.write(request.getBytes(StandardCharsets.ISO_8859_1));
+        }
+        out.flush();
+    }
+
+    @NotNull
+    Response get(
+            @NotNull final String uri,
+            @NotNull final String... headers) throws IOException {
+        send(request("GET", uri, headers));
+        return read();
+    }
+
+    /**
+     * Reads the next response, a chunked body is joined and its trailers are collected.
+     */
+    @NotNull
+    Response read() throws IOException {
+        final String status = readLine();
+        final int code = Integer.parseInt(status.split(" ")[1]);
+        final Map<String, String> headers = readHeaders();
+
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final List<byte[]> chunks = new ArrayList<>();
+        Map<String, String> trailers = Map.of();
+        if ("chunked".equalsIgnoreCase(headers.get("transfer-encoding"))) {
+            while (true) {
+                final int size = Integer.parseInt(readLine().trim(), 16);
+                if (size == 0) {
+                    trailers = readHeaders();
+                    break;
+                }
+                final byte[] chunk = readFully(size);
+                body.write(chunk);
+                chunks.add(chunk);
+                if (!readLine().isEmpty()) {
+                    throw new IOException("Malformed chunk");
+                }
+            }
+        } else if (headers.containsKey("content-length")) {
+            body.write(readFully(Integer.parseInt(headers.get("content-length"))));
+        }
+        return new Response(code, headers, trailers, body.toByteArray(), chunks);
+    }
+
+    /**
+     * Whether the server has closed the connection, all the responses must have been read.
+     */
+    boolean isClosedByServer() throws IOException {
+        return in.read() < 0;
+    }
+
+    @NotNull
+    private Map<String, String> readHeaders() throws IOException {
+        final Map<String, String> headers = new HashMap<>();
+        for (String line = readLine(); !line.isEmpty(); line = readLine()) {
+            final int colon = line.indexOf(':');
+            headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+        }
+        return headers;
+    }
+
+    @NotNull
+    private String readLine() throws IOException {
+        final StringBuilder line = new StringBuilder();
+        while (true) {
+            final int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Connection closed");
+            }
+            if (b == '\n') {
+                final int length = line.length();
+                return length > 0 && line.charAt(length - 1) == '\r' ? line.substring(0, length - 1) : line.toString();
+            }
+            line.append((char) b);
+        }
+    }
+
+    @NotNull
+    private byte[] readFully(final int length) throws IOException {
+        final byte[] result = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            final int read = in.read(result, offset, length - offset);
+            if (read < 0) {
+                throw new EOFException("Connection closed");
+            }
+            offset += read;
+        }
+        return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    static final class Response {
+        private final int status;
+        private final Map<String, String> headers;
+        private final Map<String, String> trailers;
+        private final byte[] body;
+        private final List<byte[]> chunks;
+
+        Response(
+                final int status,
+                @NotNull final Map<String, String> headers,
+                @NotNull final Map<String, String> trailers,
+                @NotNull final byte[] body,
+                @NotNull final List<byte[]> chunks) {
+            this.status = status;
+            this.headers = headers;
+            this.trailers = trailers;
+            this.body = body;
+            this.chunks = chunks;
+        }
+
+        int getStatus() {
+            return status;
+        }
+
+        @Nullable
+        String getHeader(@NotNull final String name) {
+            return headers.get(name.toLowerCase(Locale.ROOT));
+        }
+
+        @Nullable
+        String getTrailer(@NotNull final String name) {
+            return trailers.get(name.toLowerCase(Locale.ROOT));
+        }
+
+        @NotNull
+        byte[] getBody() {
+            return body;
+        }
+
+        /**
+         * Number of non empty chunks of a chunked body.
+         */
+        int getChunks() {
+            return chunks.size();
+        }
+
+        /**
+         * Payloads of the non empty chunks of a chunked body, as sent.
+         */
+        @NotNull
+        List<byte[]> getChunkBodies() {
+            return chunks;
+        }
+    }
+}
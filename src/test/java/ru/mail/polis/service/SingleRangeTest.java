@@ -31,9 +31,13 @@ import ru.mail.polis.dao.DAOFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -92,6 +96,55 @@ class SingleRangeTest extends TestBase {
         return client.get("/v0/entities?start=" + start + (end != null ? "&end=" + end : ""));
     }
 
+    /**
+     * Decodes the binary records as views of the body, checking the batch checksums if present.
+     *
+     * @return keys and values interleaved
+     */
+    @NotNull
+    private static List<ByteBuffer> records(
+            @NotNull final byte[] body,
+            final boolean crc) {
+        final List<ByteBuffer> result = new ArrayList<>();
+        final ByteBuffer batches = ByteBuffer.wrap(body);
+        for (int length = batches.getInt(); length > 0; length = batches.getInt()) {
+            final int start = batches.position();
+            final int end = start + length;
+            while (batches.position() < end) {
+                result.add(slice(batches, varint(batches)));
+                result.add(slice(batches, varint(batches)));
+            }
+            if (crc) {
+                final CRC32 checksum = new CRC32();
+                checksum.update(body, start, length);
+                assertEquals((int) checksum.getValue(), batches.getInt());
+            }
+        }
+        assertFalse(batches.hasRemaining());
+        return result;
+    }
+
+    private static int varint(@NotNull final ByteBuffer src) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            final byte b = src.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    @NotNull
+    private static ByteBuffer slice(
+            @NotNull final ByteBuffer src,
+            final int length) {
+        final ByteBuffer result = src.slice();
+        result.limit(length);
+        src.position(src.position() + length);
+        return result;
+    }
+
     private Response upsert(
             @NotNull final String key,
             @NotNull final byte[] data) throws Exception {
@@ -225,4 +278,139 @@ class SingleRangeTest extends TestBase {
             assertEquals(0, response.getBody().length);
         });
     }
+
+    @Test
+    void descending() {
+        final String prefix = "descending";
+        final String value1 = "value1";
+        final String value2 = "";
+        final String value3 = "value3";
+
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            assertEquals(201, upsert(prefix + 2, value2.getBytes()).getStatus());
+            assertEquals(201, upsert(prefix + 1, value1.getBytes()).getStatus());
+            assertEquals(201, upsert(prefix + 3, value3.getBytes()).getStatus());
+        });
+
+        // Check all
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final Response response = client.get("/v0/entities?start=" + prefix + "&order=desc");
+            assertEquals(200, response.getStatus());
+            assertEquals(
+                    new String(chunkOf(prefix + 3, value3)) + new String(chunkOf(prefix + 2, value2))
+                            + new String(chunkOf(prefix + 1, value1)),
+                    new String(response.getBody()));
+        });
+
+        // The end stays exclusive
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final Response response = client.get(
+                    "/v0/entities?start=" + prefix + 2 + "&end=" + prefix + 3 + "&order=desc");
+            assertEquals(200, response.getStatus());
+            assertArrayEquals(chunkOf(prefix + 2, value2), response.getBody());
+        });
+
+        // To the left
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final Response response = client.get(
+                    "/v0/entities?start=" + prefix + 0 + "&end=" + prefix + 1 + "&order=desc");
+            assertEquals(200, response.getStatus());
+            assertEquals(0, response.getBody().length);
+        });
+
+        // Ascending explicitly
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final Response response = client.get(
+                    "/v0/entities?start=" + prefix + 1 + "&end=" + prefix + 3 + "&order=asc");
+            assertEquals(200, response.getStatus());
+            assertEquals(
+                    new String(chunkOf(prefix + 1, value1)) + new String(chunkOf(prefix + 2, value2)),
+                    new String(response.getBody()));
+        });
+
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            assertEquals(400, client.get("/v0/entities?start=" + prefix + "&order=random").getStatus());
+        });
+    }
+
+    @Test
+    void remove() {
+        final String prefix = "remove";
+        final String value = "value";
+
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            for (int i = 1; i <= 6; i++) {
+                assertEquals(201, upsert(prefix + i, value.getBytes()).getStatus());
+            }
+        });
+
+        // Bounded, the end stays
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            assertEquals(202, client.delete("/v0/entities?start=" + prefix + 2 + "&end=" + prefix + 4).getStatus());
+            assertEquals(
+                    new String(chunkOf(prefix + 1, value)) + new String(chunkOf(prefix + 4, value))
+                            + new String(chunkOf(prefix + 5, value)) + new String(chunkOf(prefix + 6, value)),
+                    new String(range(prefix, null).getBody()));
+        });
+
+        // Empty and reversed ranges remove nothing
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            assertEquals(202, client.delete("/v0/entities?start=" + prefix + 4 + "&end=" + prefix + 4).getStatus());
+            assertEquals(202, client.delete("/v0/entities?start=" + prefix + 6 + "&end=" + prefix + 1).getStatus());
+            assertEquals(202, client.delete("/v0/entities?start=" + prefix + 7).getStatus());
+            assertEquals(4 * chunkOf(prefix + 1, value).length, range(prefix, null).getBody().length);
+        });
+
+        // Open ended, up to the last key
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            assertEquals(202, client.delete("/v0/entities?start=" + prefix + 5 + "&end=").getStatus());
+            assertEquals(
+                    new String(chunkOf(prefix + 1, value)) + new String(chunkOf(prefix + 4, value)),
+                    new String(range(prefix, null).getBody()));
+
+            assertEquals(202, client.delete("/v0/entities?start=" + prefix).getStatus());
+            assertEquals(0, range(prefix, null).getBody().length);
+        });
+
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            assertEquals(400, client.delete("/v0/entities").getStatus());
+            assertEquals(400, client.delete("/v0/entities?start=&end=" + prefix).getStatus());
+        });
+    }
+
+    @Test
+    void binary() {
+        final String prefix = "binary";
+        final String value1 = "value1";
+        final String value2 = "";
+
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            assertEquals(201, upsert(prefix + 2, value2.getBytes()).getStatus());
+            assertEquals(201, upsert(prefix + 1, value1.getBytes()).getStatus());
+        });
+
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final String uri = "/v0/entities?start=" + prefix + 1 + "&end=" + prefix + 3;
+            for (final boolean crc : new boolean[]{false, true}) {
+                final Response response = client.get(uri,
+                        "Accept: application/x-records" + (crc ? "; checksum=crc32" : ""));
+                assertEquals(200, response.getStatus());
+
+                final List<ByteBuffer> records = records(response.getBody(), crc);
+                assertEquals(4, records.size());
+                assertEquals(ByteBuffer.wrap((prefix + 1).getBytes()), records.get(0));
+                assertEquals(ByteBuffer.wrap(value1.getBytes()), records.get(1));
+                assertEquals(ByteBuffer.wrap((prefix + 2).getBytes()), records.get(2));
+                assertEquals(ByteBuffer.wrap(value2.getBytes()), records.get(3));
+            }
+        });
+
+        // Empty range is a single zero length batch
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final Response response = client.get("/v0/entities?start=" + prefix + 3,
+                    "Accept: application/x-records");
+            assertEquals(200, response.getStatus());
+            assertTrue(records(response.getBody(), false).isEmpty());
+        });
+    }
 }
@@ -0,0 +1,245 @@
+package ru.mail.polis.service;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.Files;
+import ru.mail.polis.Record;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.dao.CloseableIterator;
+import ru.mail.polis.dao.Cursor;
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.DAOFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for the range streams read on the scan threads and abandoned by the clients.
+ */
+class StreamingTest extends TestBase {
+    private static final Duration TIMEOUT = Duration.ofMinutes(1);
+    private static final int RECORDS = 20_000;
+    private static final int VALUE_SIZE = 1024;
+    private int port;
+    private File data;
+    private GeneratingDAO dao;
+    private Service storage;
+
+    @BeforeEach
+    void beforeEach() throws Exception {
+        port = randomPort();
+        data = Files.createTempDirectory();
+        dao = new GeneratingDAO(DAOFactory.create(data));
+        storage = ServiceFactory.create(port, dao, Collections.singleton(endpoint(port)));
+        storage.start();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(1));
+    }
+
+    @AfterEach
+    void afterEach() throws IOException {
+        if (storage != null) {
+            storage.stop();
+        }
+        dao.close();
+        Files.recursiveDelete(data);
+    }
+
+    @NotNull
+    private static String key(final int i) {
+        return String.format("key%06d", i);
+    }
+
+    @Test
+    void offSelector() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            try (RawHttpClient client = new RawHttpClient(port, TIMEOUT)) {
+                final RawHttpClient.Response response = client.get("/v0/entities?start=" + key(0));
+                assertEquals(200, response.getStatus());
+                assertEquals((long) RECORDS * (key(0).length() + 1 + VALUE_SIZE), response.getBody().length);
+                assertTrue(response.getChunks() > 1);
+
+                // The connection goes on after the stream
+                assertEquals(200, client.get("/v0/status").getStatus());
+            }
+            assertTrue(dao.closed.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS));
+            assertEquals(RECORDS, dao.advanced.get());
+            assertFalse(dao.threads.isEmpty());
+            for (final String thread : dao.threads) {
+                assertTrue(thread.startsWith("scan-"), thread);
+            }
+        });
+    }
+
+    @Test
+    void clientDisconnects() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            try (Socket socket = new Socket("localhost", port)) {
+                final OutputStream out = socket.getOutputStream();
+                out.write(RawHttpClient.request("GET", "/v0/entities?start=" + key(0))
+                        .getBytes(StandardCharsets.ISO_8859_1));
+                out.flush();
+
+                // Takes a part of the stream only
+                final InputStream in = socket.getInputStream();
+                final byte[] buffer = new byte[64 * 1024];
+                int read = 0;
+                while (read < buffer.length) {
+                    final int n = in.read(buffer, read, buffer.length - read);
+                    assertTrue(n > 0);
+                    read += n;
+                }
+            }
+
+            // The scan stops and releases the cursor
+            assertTrue(dao.closed.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS));
+            assertTrue(dao.advanced.get() < RECORDS);
+
+            try (RawHttpClient client = new RawHttpClient(port, TIMEOUT)) {
+                assertEquals(200, client.get("/v0/status").getStatus());
+            }
+        });
+    }
+
+    @Test
+    void stopReleasesCursors() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            // More streams than the scan threads, none of them read, so the scans are paused, queued or running
+            final int streams = 4 * Runtime.getRuntime().availableProcessors();
+            final List<Socket> sockets = new ArrayList<>(streams);
+            try {
+                for (int i = 0; i < streams; i++) {
+                    final Socket socket = new Socket("localhost", port);
+                    sockets.add(socket);
+                    final OutputStream out = socket.getOutputStream();
+                    out.write(RawHttpClient.request("GET", "/v0/entities?start=" + key(0))
+                            .getBytes(StandardCharsets.ISO_8859_1));
+                    out.flush();
+                }
+                while (dao.opened.get() < streams) {
+                    Thread.sleep(10);
+                }
+
+                storage.stop();
+                storage = null;
+
+                // Every cursor is closed by now and no scan goes on
+                assertEquals(0, dao.open.get());
+                final int advanced = dao.advanced.get();
+                Thread.sleep(100);
+                assertEquals(advanced, dao.advanced.get());
+            } finally {
+                for (final Socket socket : sockets) {
+                    socket.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Serves the ranges from generated records, tracking the threads reading them.
+     */
+    private static final class GeneratingDAO implements DAO {
+        private final DAO delegate;
+        private final ByteBuffer value;
+        private final AtomicInteger advanced = new AtomicInteger();
+        private final Set<String> threads = ConcurrentHashMap.newKeySet();
+        private final CountDownLatch closed = new CountDownLatch(1);
+        private final AtomicInteger opened = new AtomicInteger();
+        private final AtomicInteger open = new AtomicInteger();
+
+        GeneratingDAO(@NotNull final DAO delegate) {
+            this.delegate = delegate;
+            final byte[] bytes = new byte[VALUE_SIZE];
+            Arrays.fill(bytes, (byte) 'v');
+            this.value = ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+        }
+
+        @NotNull
+        @Override
+        public CloseableIterator<Record> iterator(@NotNull final ByteBuffer from) throws IOException {
+            return delegate.iterator(from);
+        }
+
+        @NotNull
+        @Override
+        public Cursor cursor(
+                @NotNull final ByteBuffer from,
+                @Nullable final ByteBuffer to) {
+            opened.incrementAndGet();
+            open.incrementAndGet();
+            return new Cursor() {
+                private int next;
+                private ByteBuffer current;
+
+                @Override
+                public boolean advance() {
+                    threads.add(Thread.currentThread().getName());
+                    if (next == RECORDS) {
+                        return false;
+                    }
+                    current = ByteBuffer.wrap(StreamingTest.key(next++).getBytes(StandardCharsets.UTF_8));
+                    advanced.incrementAndGet();
+                    return true;
+                }
+
+                @NotNull
+                @Override
+                public ByteBuffer key() {
+                    return current.duplicate();
+                }
+
+                @NotNull
+                @Override
+                public ByteBuffer value() {
+                    return value.duplicate();
+                }
+
+                @Override
+                public void close() {
+                    open.decrementAndGet();
+                    closed.countDown();
+                }
+            };
+        }
+
+        @Override
+        public void upsert(
+                @NotNull final ByteBuffer key,
+                @NotNull final ByteBuffer value) throws IOException {
+            delegate.upsert(key, value);
+        }
+
+        @Override
+        public void remove(@NotNull final ByteBuffer key) throws IOException {
+            delegate.remove(key);
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package ru.mail.polis.service;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.Files;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.DAOFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for the framing of the text records by the chunk boundaries.
+ */
+class TextFramingTest extends TestBase {
+    private static final Duration TIMEOUT = Duration.ofMinutes(1);
+    private static final int RECORDS = 500;
+    private static final String RANGE = "/v0/entities?start=key";
+    private int port;
+    private File data;
+    private DAO dao;
+    private Service storage;
+
+    @BeforeEach
+    void beforeEach() throws Exception {
+        port = randomPort();
+        data = Files.createTempDirectory();
+        dao = DAOFactory.create(data);
+        for (int i = 0; i < RECORDS; i++) {
+            dao.upsert(ByteBuffer.wrap(key(i).getBytes(StandardCharsets.UTF_8)),
+                    ByteBuffer.wrap(value(i).getBytes(StandardCharsets.UTF_8)));
+        }
+        storage = ServiceFactory.create(port, dao, Collections.singleton(endpoint(port)));
+        storage.start();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(1));
+    }
+
+    @AfterEach
+    void afterEach() throws IOException {
+        storage.stop();
+        dao.close();
+        Files.recursiveDelete(data);
+    }
+
+    @NotNull
+    private static String key(final int i) {
+        return String.format("key%03d", i);
+    }
+
+    /**
+     * Line breaks everywhere, including an empty line and a trailing one.
+     */
+    @NotNull
+    private static String value(final int i) {
+        return "\nfirst line " + i + "\n\nlast line\n";
+    }
+
+    @NotNull
+    private static String record(final int i) {
+        return key(i) + '\n' + value(i);
+    }
+
+    @NotNull
+    private static byte[] inflate(
+            @NotNull final Inflater inflater,
+            @NotNull final byte[] chunk) throws DataFormatException {
+        inflater.setInput(chunk);
+        final ByteArrayOutputStream result = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[1024];
+        for (int read = inflater.inflate(buffer); read > 0; read = inflater.inflate(buffer)) {
+            result.write(buffer, 0, read);
+        }
+        return result.toByteArray();
+    }
+
+    @Test
+    void recordPerChunk() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            try (RawHttpClient client = new RawHttpClient(port, TIMEOUT)) {
+                final RawHttpClient.Response response = client.get(RANGE);
+                assertEquals(200, response.getStatus());
+
+                final List<byte[]> chunks = response.getChunkBodies();
+                assertEquals(RECORDS, chunks.size());
+                for (int i = 0; i < RECORDS; i++) {
+                    // The key ends at the first line break, the value takes the rest of the chunk
+                    final String chunk = new String(chunks.get(i), StandardCharsets.UTF_8);
+                    final int separator = chunk.indexOf('\n');
+                    assertEquals(key(i), chunk.substring(0, separator));
+                    assertEquals(value(i), chunk.substring(separator + 1));
+                }
+            }
+        });
+    }
+
+    @Test
+    void keyPerChunk() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            try (RawHttpClient client = new RawHttpClient(port, TIMEOUT)) {
+                final RawHttpClient.Response response = client.get(RANGE + "&projection=keys");
+                assertEquals(200, response.getStatus());
+
+                final List<byte[]> chunks = response.getChunkBodies();
+                assertEquals(RECORDS, chunks.size());
+                for (int i = 0; i < RECORDS; i++) {
+                    assertEquals(key(i), new String(chunks.get(i), StandardCharsets.UTF_8));
+                }
+            }
+        });
+    }
+
+    @Test
+    void compressedRecordPerChunk() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            try (RawHttpClient client = new RawHttpClient(port, TIMEOUT)) {
+                final RawHttpClient.Response response = client.get(RANGE, "Accept-Encoding: deflate");
+                assertEquals(200, response.getStatus());
+                assertEquals("deflate", response.getHeader("Content-Encoding"));
+
+                // Every chunk inflates to a whole record as it arrives, the last one may only end the stream
+                final Inflater inflater = new Inflater();
+                try {
+                    int records = 0;
+                    for (final byte[] chunk : response.getChunkBodies()) {
+                        final byte[] inflated = inflate(inflater, chunk);
+                        if (inflated.length > 0) {
+                            assertArrayEquals(record(records).getBytes(StandardCharsets.UTF_8), inflated);
+                            records++;
+                        }
+                    }
+                    assertEquals(RECORDS, records);
+                    assertTrue(inflater.finished());
+                } finally {
+                    inflater.end();
+                }
+            }
+        });
+    }
+
+    @Test
+    void binaryBatches() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            try (RawHttpClient client = new RawHttpClient(port, TIMEOUT)) {
+                final RawHttpClient.Response response = client.get(RANGE, "Accept: application/x-records");
+                assertEquals(200, response.getStatus());
+                // Framed by the varints, the records are packed together
+                assertTrue(response.getChunks() < RECORDS / 10, "Chunks: " + response.getChunks());
+
+                final ByteBuffer batches = ByteBuffer.wrap(response.getBody());
+                int records = 0;
+                for (int length = batches.getInt(); length > 0; length = batches.getInt()) {
+                    final int end = batches.position() + length;
+                    while (batches.position() < end) {
+                        assertEquals(key(records), string(batches));
+                        assertEquals(value(records), string(batches));
+                        records++;
+                    }
+                }
+                assertEquals(RECORDS, records);
+                assertEquals(0, batches.remaining());
+            }
+        });
+    }
+
+    /**
+     * Reads a single byte varint length and the following bytes.
+     */
+    @NotNull
+    private static String string(@NotNull final ByteBuffer src) {
+        final int length = src.get();
+        assertTrue(length >= 0);
+        final byte[] bytes = Arrays.copyOfRange(src.array(), src.position(), src.position() + length);
+        src.position(src.position() + length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,145 @@
+package ru.mail.polis.service;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.Files;
+import ru.mail.polis.Record;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.dao.CloseableIterator;
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.DAOFactory;
+import ru.mail.polis.dao.WriteStalledException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+/**
+ * Unit tests for the writes rejected with {@code 503} while the storage stalls them.
+ */
+class WriteStallTest extends TestBase {
+    private static final Duration TIMEOUT = Duration.ofMinutes(1);
+    private int port;
+    private File data;
+    private StallingDAO dao;
+    private Service storage;
+
+    @BeforeEach
+    void beforeEach() throws Exception {
+        port = randomPort();
+        data = Files.createTempDirectory();
+        dao = new StallingDAO(DAOFactory.create(data));
+        storage = ServiceFactory.create(port, dao, Collections.singleton(endpoint(port)));
+        storage.start();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(1));
+    }
+
+    @AfterEach
+    void afterEach() throws IOException {
+        storage.stop();
+        dao.close();
+        Files.recursiveDelete(data);
+    }
+
+    @Test
+    void reportedStall() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            try (RawHttpClient client = new RawHttpClient(port, TIMEOUT)) {
+                client.send(RawHttpClient.put("k1", "v1"));
+                assertEquals(201, client.read().getStatus());
+
+                dao.stalled = true;
+                client.send(RawHttpClient.put("k2", "v2"));
+                RawHttpClient.assertRetryLater(client.read());
+                client.send(RawHttpClient.request("DELETE", "/v0/entity?id=k1"));
+                RawHttpClient.assertRetryLater(client.read());
+                client.send(RawHttpClient.request("DELETE", "/v0/entities?start=k"));
+                RawHttpClient.assertRetryLater(client.read());
+
+                // Reads go on
+                assertEquals(200, client.get("/v0/entity?id=k1").getStatus());
+                assertEquals(404, client.get("/v0/entity?id=k2").getStatus());
+
+                dao.stalled = false;
+                client.send(RawHttpClient.put("k2", "v2"));
+                assertEquals(201, client.read().getStatus());
+            }
+        });
+    }
+
+    @Test
+    void failedWrite() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            try (RawHttpClient client = new RawHttpClient(port, TIMEOUT)) {
+                // The storage is not known to stall until the write fails
+                dao.failing = true;
+                client.send(RawHttpClient.put("k1", "v1"));
+                RawHttpClient.assertRetryLater(client.read());
+                client.send(RawHttpClient.request("DELETE", "/v0/entity?id=k1"));
+                RawHttpClient.assertRetryLater(client.read());
+                assertEquals(404, client.get("/v0/entity?id=k1").getStatus());
+
+                dao.failing = false;
+                client.send(RawHttpClient.put("k1", "v1"));
+                assertEquals(201, client.read().getStatus());
+            }
+        });
+    }
+
+    /**
+     * Reports the stall or fails the writes as told, delegating the rest.
+     */
+    private static final class StallingDAO implements DAO {
+        private final DAO delegate;
+        private volatile boolean stalled;
+        private volatile boolean failing;
+
+        StallingDAO(@NotNull final DAO delegate) {
+            this.delegate = delegate;
+        }
+
+        @NotNull
+        @Override
+        public CloseableIterator<Record> iterator(@NotNull final ByteBuffer from) throws IOException {
+            return delegate.iterator(from);
+        }
+
+        @Override
+        public void upsert(
+                @NotNull final ByteBuffer key,
+                @NotNull final ByteBuffer value) throws IOException {
+            checkFailing();
+            delegate.upsert(key, value);
+        }
+
+        @Override
+        public void remove(@NotNull final ByteBuffer key) throws IOException {
+            checkFailing();
+            delegate.remove(key);
+        }
+
+        private void checkFailing() throws WriteStalledException {
+            if (failing) {
+                throw new WriteStalledException("Writes are delayed");
+            }
+        }
+
+        @Override
+        public boolean isWriteStalled() {
+            return stalled;
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+}